@@ -0,0 +1,132 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.graphics.Bitmap;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import rx.Observable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Zooms real {@link ZoomableLayout} in and out with thumbnails served from {@link ThumbnailCache}
+ * that hands evicted bitmaps to {@link BitmapPool}, the way {@link ThumbnailLoader} wires them
+ */
+@RunWith(AndroidJUnit4.class)
+public class ZoomableLayoutRecyclingTest {
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 120;
+
+    private static final int THUMBNAIL_WIDTH = WIDTH / ZoomableLayout.MAIN_FRAMES_COUNT;
+    private static final int CACHE_CAPACITY = 8;
+
+    private static final int ZOOM = 3;
+    private static final int WARMUP_CYCLES = 3;
+    private static final int MEASURED_CYCLES = 100;
+
+    private ZoomableLayout mLayout;
+    private BitmapPool mBitmapPool;
+
+    @Before
+    public void setUp() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mBitmapPool = new BitmapPool();
+
+                mLayout = new ZoomableLayout(InstrumentationRegistry.getTargetContext());
+                mLayout.setZoomLevels(ZOOM);
+                mLayout.setCallback(new CachingCallback(mBitmapPool,
+                        new ThumbnailCache(CACHE_CAPACITY * THUMBNAIL_WIDTH * HEIGHT * 4, mBitmapPool)));
+
+                mLayout.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+                mLayout.layout(0, 0, WIDTH, HEIGHT);
+            }
+        });
+    }
+
+    @Test
+    public void zoomCyclesReuseEvictedBitmaps() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int cycle = 0; cycle < WARMUP_CYCLES; cycle++) {
+                    zoomCycle(cycle);
+                }
+
+                int warmUpAllocations = mBitmapPool.getAllocationCount();
+
+                for (int cycle = 0; cycle < MEASURED_CYCLES; cycle++) {
+                    zoomCycle(cycle);
+                }
+
+                assertEquals(warmUpAllocations, mBitmapPool.getAllocationCount());
+                assertTrue(warmUpAllocations <= CACHE_CAPACITY + ZoomableLayout.SLOTS_COUNT);
+            }
+        });
+    }
+
+    /**
+     * Zooms in around one of main frames and back out
+     */
+    private void zoomCycle(int cycle) {
+        int pivotFrame = cycle % ZoomableLayout.MAIN_FRAMES_COUNT;
+        float pivotX = (pivotFrame + 0.5f) * THUMBNAIL_WIDTH;
+
+        mLayout.setZoom(ZOOM, pivotX);
+        mLayout.setZoom(1, pivotX);
+    }
+
+    /**
+     * Serves thumbnails synchronously, bitmaps of missing ones are obtained from pool
+     */
+    private static class CachingCallback implements ZoomableLayout.Callback {
+        private final BitmapPool mBitmapPool;
+        private final ThumbnailCache mCache;
+
+        CachingCallback(BitmapPool bitmapPool, ThumbnailCache cache) {
+            mBitmapPool = bitmapPool;
+            mCache = cache;
+        }
+
+        @Override
+        public Observable<Thumbnail> getThumbnailsAt(float[] pixelPositions, float pixelSpan, boolean isMainStrip) {
+            Thumbnail[] thumbnails = new Thumbnail[pixelPositions.length];
+
+            for (int i = 0; i < pixelPositions.length; i++) {
+                long key = Math.round(pixelPositions[i]);
+                Bitmap bitmap = mCache.get(key);
+
+                if (bitmap == null) {
+                    bitmap = mBitmapPool.obtain(THUMBNAIL_WIDTH, HEIGHT);
+                    mCache.put(key, bitmap);
+                }
+
+                thumbnails[i] = new Thumbnail(i, bitmap, true);
+            }
+
+            return Observable.from(thumbnails);
+        }
+
+        @Override
+        public void onBitmapShown(Bitmap bitmap) {
+            mBitmapPool.onShown(bitmap);
+        }
+
+        @Override
+        public void onBitmapHidden(Bitmap bitmap) {
+            mBitmapPool.onHidden(bitmap);
+        }
+
+        @Override
+        public void onZoomChanged(float zoom, float pivotX) {
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.drawable.BitmapDrawable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+import android.widget.ImageView;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import rx.Observable;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link ZoomableLayout.RenderMode#CANVAS} draws the same frames as
+ * {@link ZoomableLayout.RenderMode#VIEWS} over a zoom sweep, each of them once and without child views
+ */
+@RunWith(AndroidJUnit4.class)
+public class ZoomableLayoutRenderTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 160;
+
+    private static final int STEPS = 200;
+    private static final float MAX_ZOOM = 10;
+
+    private final PositionCallback mCallback = new PositionCallback();
+
+    @After
+    public void tearDown() {
+        for (Bitmap bitmap : mCallback.mThumbnails.values()) {
+            bitmap.recycle();
+        }
+    }
+
+    @Test
+    public void canvasModeDrawsFramesOfViewsModeOnce() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ZoomableLayout views = newLayout(ZoomableLayout.RenderMode.VIEWS);
+                ZoomableLayout canvas = newLayout(ZoomableLayout.RenderMode.CANVAS);
+                RecordingCanvas target = new RecordingCanvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+
+                assertEquals(0, canvas.getChildCount());
+
+                for (int step = 0; step < STEPS; step++) {
+                    //zooms in and out around different pivots, so frames both move and get rebound
+                    float progress = (step % 100) / 50f;
+                    float zoom = 1 + (MAX_ZOOM - 1) * (progress <= 1 ? progress : 2 - progress);
+                    float pivotX = (step / 100) % 2 == 0 ? WIDTH / 4 : WIDTH * 3 / 4;
+
+                    views.setZoom(zoom, pivotX);
+                    canvas.setZoom(zoom, pivotX);
+
+                    target.mDrawnBitmaps.clear();
+                    canvas.draw(target);
+
+                    List<Bitmap> expected = visibleBitmaps(views);
+
+                    assertEquals(0, canvas.getChildCount());
+                    assertEquals(expected.size(), target.mDrawnBitmaps.size());
+                    assertEquals(new HashSet<>(expected), new HashSet<>(target.mDrawnBitmaps));
+                }
+            }
+        });
+    }
+
+    private ZoomableLayout newLayout(ZoomableLayout.RenderMode renderMode) {
+        ZoomableLayout layout = new ZoomableLayout(InstrumentationRegistry.getTargetContext());
+        layout.setCallback(mCallback);
+        layout.setRenderMode(renderMode);
+
+        layout.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        layout.layout(0, 0, WIDTH, HEIGHT);
+
+        return layout;
+    }
+
+    /**
+     * @return bitmaps of child views that are at least partially on screen
+     */
+    private static List<Bitmap> visibleBitmaps(ZoomableLayout layout) {
+        List<Bitmap> bitmaps = new ArrayList<>();
+
+        for (int i = 0; i < layout.getChildCount(); i++) {
+            ImageView view = layout.getChildAt(i);
+            float left = view.getTranslationX();
+
+            if (view.getVisibility() != View.VISIBLE || !(view.getDrawable() instanceof BitmapDrawable)
+                    || left + view.getWidth() <= 0 || left >= WIDTH) {
+                continue;
+            }
+
+            bitmaps.add(((BitmapDrawable) view.getDrawable()).getBitmap());
+        }
+
+        return bitmaps;
+    }
+
+    private static class RecordingCanvas extends Canvas {
+        private final List<Bitmap> mDrawnBitmaps = new ArrayList<>();
+
+        RecordingCanvas(Bitmap bitmap) {
+            super(bitmap);
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) {
+            mDrawnBitmaps.add(bitmap);
+            super.drawBitmap(bitmap, matrix, paint);
+        }
+    }
+
+    /**
+     * Delivers right away a distinct thumbnail for every frame position, both layouts get the same ones
+     */
+    private static class PositionCallback implements ZoomableLayout.Callback {
+        private final Map<Long, Bitmap> mThumbnails = new HashMap<>();
+
+        @Override
+        public Observable<Thumbnail> getThumbnailsAt(float[] pixelPositions, float pixelSpan, boolean isMainStrip) {
+            Thumbnail[] thumbnails = new Thumbnail[pixelPositions.length];
+
+            for (int i = 0; i < pixelPositions.length; i++) {
+                long key = Math.round(pixelPositions[i] * MAX_ZOOM);
+                Bitmap bitmap = mThumbnails.get(key);
+
+                if (bitmap == null) {
+                    bitmap = Bitmap.createBitmap(32, 18, Bitmap.Config.ARGB_8888);
+                    mThumbnails.put(key, bitmap);
+                }
+
+                thumbnails[i] = new Thumbnail(i, bitmap, true);
+            }
+
+            return Observable.from(thumbnails);
+        }
+
+        @Override
+        public void onBitmapShown(Bitmap bitmap) {
+        }
+
+        @Override
+        public void onBitmapHidden(Bitmap bitmap) {
+        }
+
+        @Override
+        public void onZoomChanged(float zoom, float pivotX) {
+        }
+    }
+}
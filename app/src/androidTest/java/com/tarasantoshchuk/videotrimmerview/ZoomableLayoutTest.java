@@ -0,0 +1,100 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.graphics.Bitmap;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import rx.Observable;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class ZoomableLayoutTest {
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 120;
+
+    private ZoomableLayout mLayout;
+    private CountingCallback mCallback;
+
+    @Before
+    public void setUp() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mCallback = new CountingCallback();
+                mLayout = new ZoomableLayout(InstrumentationRegistry.getTargetContext());
+                mLayout.setCallback(mCallback);
+            }
+        });
+    }
+
+    @Test
+    public void repeatedLayoutDoesNotRequestThumbnails() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                layout(WIDTH, HEIGHT);
+                assertEquals(1, mCallback.mRequestsCount);
+
+                for (int i = 0; i < 100; i++) {
+                    mLayout.requestLayout();
+                    layout(WIDTH, HEIGHT);
+                }
+
+                assertEquals(1, mCallback.mRequestsCount);
+            }
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zoomLevelBelowOneIsRejected() {
+        //rejected before any view state is touched, so it doesn't need main thread
+        mLayout.setZoomLevels(2, 0);
+    }
+
+    @Test
+    public void sizeChangeRequestsThumbnails() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                layout(WIDTH, HEIGHT);
+                layout(WIDTH / 2, HEIGHT / 2);
+
+                assertEquals(2, mCallback.mRequestsCount);
+            }
+        });
+    }
+
+    private void layout(int width, int height) {
+        mLayout.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        mLayout.layout(0, 0, width, height);
+    }
+
+    private static class CountingCallback implements ZoomableLayout.Callback {
+        private int mRequestsCount;
+
+        @Override
+        public Observable<Thumbnail> getThumbnailsAt(float[] pixelPositions, float pixelSpan, boolean isMainStrip) {
+            mRequestsCount++;
+            return Observable.empty();
+        }
+
+        @Override
+        public void onBitmapShown(Bitmap bitmap) {
+        }
+
+        @Override
+        public void onBitmapHidden(Bitmap bitmap) {
+        }
+
+        @Override
+        public void onZoomChanged(float zoom, float pivotX) {
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Decodes audio track in a single streaming pass and reduces it to {@link PeakPyramid},
+ * decoded samples are folded into peaks buffer by buffer and never kept
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class AudioPeakDecoder {
+    private static final long DEQUEUE_TIMEOUT_US = 10_000;
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * Must not be called on main thread
+     *
+     * @return peaks of audio track, or null if source has no audio
+     */
+    static PeakPyramid decode(VideoSource source) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec decoder = null;
+
+        try {
+            source.setDataSource(extractor);
+
+            MediaFormat format = selectAudioTrack(extractor);
+
+            if (format == null) {
+                return null;
+            }
+
+            //duration is only a hint, peaks cover frames that are actually decoded
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+
+            PeakPyramid.Builder builder = new PeakPyramid.Builder(Math.max(0, durationUs) * sampleRate / 1_000_000);
+
+            decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            decoder.configure(format, null, null, 0);
+            decoder.start();
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean isInputDone = false;
+
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException();
+                }
+
+                if (!isInputDone) {
+                    isInputDone = queueSample(extractor, decoder);
+                }
+
+                int outputIndex = decoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = decoder.getOutputFormat();
+                    channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    //e.g. HE-AAC is decoded at twice the rate of its track format
+                    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    continue;
+                }
+
+                if (outputIndex < 0) {
+                    continue;
+                }
+
+                ByteBuffer output = decoder.getOutputBuffer(outputIndex);
+
+                if (output != null && info.size > 0) {
+                    output.position(info.offset);
+                    output.limit(info.offset + info.size);
+                    addFrames(builder, output.slice().order(ByteOrder.nativeOrder()).asShortBuffer(), channelCount);
+                }
+
+                decoder.releaseOutputBuffer(outputIndex, false);
+
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return builder.build(sampleRate);
+                }
+            }
+        } finally {
+            if (decoder != null) {
+                decoder.release();
+            }
+
+            extractor.release();
+        }
+    }
+
+    private static MediaFormat selectAudioTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+
+            if (mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return true if end of stream was queued
+     */
+    private static boolean queueSample(MediaExtractor extractor, MediaCodec decoder) {
+        int inputIndex = decoder.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+
+        if (inputIndex < 0) {
+            return false;
+        }
+
+        int sampleSize = extractor.readSampleData(decoder.getInputBuffer(inputIndex), 0);
+
+        if (sampleSize < 0) {
+            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return true;
+        }
+
+        decoder.queueInputBuffer(inputIndex, 0, sampleSize, extractor.getSampleTime(), 0);
+        extractor.advance();
+        return false;
+    }
+
+    /**
+     * Folds interleaved 16 bit PCM frames into peaks
+     */
+    private static void addFrames(PeakPyramid.Builder builder, ShortBuffer samples, int channelCount) {
+        while (samples.remaining() >= channelCount) {
+            short min = Short.MAX_VALUE;
+            short max = Short.MIN_VALUE;
+
+            for (int channel = 0; channel < channelCount; channel++) {
+                short sample = samples.get();
+                min = sample < min ? sample : min;
+                max = sample > max ? sample : max;
+            }
+
+            builder.addFrame(min, max);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.graphics.Bitmap;
+
+class BitmapPool extends RecyclingPool<Bitmap> {
+    private static final int MAX_FREE_BITMAPS_PER_SIZE = 8;
+
+    BitmapPool() {
+        super(MAX_FREE_BITMAPS_PER_SIZE);
+    }
+
+    @Override
+    protected Bitmap allocate(int width, int height) {
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    @Override
+    protected int widthOf(Bitmap bitmap) {
+        return bitmap.getWidth();
+    }
+
+    @Override
+    protected int heightOf(Bitmap bitmap) {
+        return bitmap.getHeight();
+    }
+
+    @Override
+    protected boolean isReusable(Bitmap bitmap) {
+        return bitmap.isMutable() && !bitmap.isRecycled() && bitmap.getConfig() == Bitmap.Config.ARGB_8888;
+    }
+}
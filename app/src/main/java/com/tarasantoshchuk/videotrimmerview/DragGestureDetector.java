@@ -33,6 +33,12 @@ public class DragGestureDetector {
          */
         void onUp();
 
+        /**
+         * Notified when a {@link MotionEvent} with {@link MotionEvent#ACTION_CANCEL} occurs,
+         * e.g. when parent intercepts the gesture. {@link #onUp()} isn't called for such gesture.
+         */
+        void onCancel();
+
         /**
          * Notified when a scroll occurs with the initial on down {@link MotionEvent} and the
          * current move {@link MotionEvent}. The distance in x and y is also supplied for
@@ -80,6 +86,9 @@ public class DragGestureDetector {
 
         public void onUp() {
         }
+
+        public void onCancel() {
+        }
     }
 
     private int mTouchSlopSquare;
@@ -301,6 +310,7 @@ public class DragGestureDetector {
         mHandler.removeMessages(LONG_PRESS);
         mAlwaysInTapRegion = false;
         mInLongPress = false;
+        mListener.onCancel();
     }
 
     private void dispatchLongPress() {
@@ -0,0 +1,80 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+import android.util.Log;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Grabs video frames at thumbnail resolution.
+ * Starting from API 27 {@link MediaMetadataRetriever} can scale frame while converting it
+ * from decoder output, so full resolution bitmap is never allocated. On older platforms
+ * full frame is drawn scaled down into pooled bitmap and recycled right away.
+ */
+class FrameGrabber {
+    private static final String TAG = "FrameGrabber";
+
+    private static final int SCALED_FRAME_API_LEVEL = 27;
+
+    private static final Method sGetScaledFrameAtTime = findGetScaledFrameAtTime();
+
+    private static final Paint sScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private FrameGrabber() {
+    }
+
+    private static Method findGetScaledFrameAtTime() {
+        if (Build.VERSION.SDK_INT < SCALED_FRAME_API_LEVEL) {
+            return null;
+        }
+
+        try {
+            return MediaMetadataRetriever.class.getMethod("getScaledFrameAtTime", long.class, int.class, int.class, int.class);
+        } catch (NoSuchMethodException e) {
+            Log.w(TAG, "scaled frame API is not available", e);
+            return null;
+        }
+    }
+
+    static Bitmap grab(MediaMetadataRetriever retriever, BitmapPool bitmapPool, long timeUs, int option, int width, int height) {
+        Bitmap frame = sGetScaledFrameAtTime != null
+                ? getScaledFrameAtTime(retriever, timeUs, option, width, height)
+                : retriever.getFrameAtTime(timeUs, option);
+
+        if (frame == null || (frame.getWidth() == width && frame.getHeight() == height)) {
+            return frame;
+        }
+
+        //scaled frame API keeps aspect ratio, so its result may still be off by a few pixels
+        Bitmap scaled = bitmapPool.obtain(width, height);
+
+        Canvas canvas = new Canvas(scaled);
+        canvas.scale(width / (float) frame.getWidth(), height / (float) frame.getHeight());
+        canvas.drawBitmap(frame, 0, 0, sScalePaint);
+
+        frame.recycle();
+
+        return scaled;
+    }
+
+    private static Bitmap getScaledFrameAtTime(MediaMetadataRetriever retriever, long timeUs, int option, int width, int height) {
+        try {
+            return (Bitmap) sGetScaledFrameAtTime.invoke(retriever, timeUs, option, width, height);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sorted presentation timestamps of video frames and of its sync frames, looked up with binary
+ * search, so trim positions can be snapped to them on every drag event
+ */
+class FrameIndex {
+    static final FrameIndex EMPTY = new FrameIndex(new long[0], new long[0]);
+
+    static final long NO_FRAME = -1;
+
+    //starts of all frames and the end of the last one
+    private final long[] mFrameBoundsUs;
+    private final long[] mSyncFramesUs;
+
+    FrameIndex(long[] frameBoundsUs, long[] syncFramesUs) {
+        mFrameBoundsUs = frameBoundsUs;
+        mSyncFramesUs = syncFramesUs;
+    }
+
+    /**
+     * Reads sample tables of mp4 source, must not be called on main thread
+     *
+     * @return index of video track, or {@link #EMPTY} if source has none
+     * @throws IOException if source can't be read or isn't mp4
+     */
+    static FrameIndex load(VideoSource source) throws IOException {
+        FileInputStream input = source.openInputStream();
+
+        try {
+            Mp4Track video = Mp4Parser.parse(input.getChannel(), source.startOffset(), source.length()).videoTrack();
+            return video != null ? fromTrack(video) : EMPTY;
+        } finally {
+            input.close();
+        }
+    }
+
+    static FrameIndex fromTrack(Mp4Track track) {
+        int count = track.sampleCount();
+        long[] frameBoundsUs = new long[count + 1];
+        long[] syncFramesUs = new long[track.mSyncSamples != null ? track.mSyncSamples.length : count];
+        int frameCount = 0;
+        int syncCount = 0;
+        long endTime = 0;
+
+        for (int sample = 0; sample < count; sample++) {
+            long presentationTime = track.presentationTime(sample);
+            endTime = Math.max(endTime, presentationTime + track.mDurations[sample]);
+
+            //frames before the first edit are never presented
+            if (presentationTime < 0) {
+                continue;
+            }
+
+            long timeUs = track.toUs(presentationTime);
+            frameBoundsUs[frameCount++] = timeUs;
+
+            if (track.isSyncSample(sample)) {
+                syncFramesUs[syncCount++] = timeUs;
+            }
+        }
+
+        frameBoundsUs[frameCount++] = track.toUs(endTime);
+
+        frameBoundsUs = Arrays.copyOf(frameBoundsUs, frameCount);
+        syncFramesUs = Arrays.copyOf(syncFramesUs, syncCount);
+
+        //samples are stored in decode order, which differs from presentation order for reordered frames
+        Arrays.sort(frameBoundsUs);
+        Arrays.sort(syncFramesUs);
+
+        return new FrameIndex(frameBoundsUs, syncFramesUs);
+    }
+
+    int frameCount() {
+        return Math.max(0, mFrameBoundsUs.length - 1);
+    }
+
+    int syncFrameCount() {
+        return mSyncFramesUs.length;
+    }
+
+    /**
+     * @return start of frame or end of the last frame that is closest to {@code timeUs},
+     * or {@link #NO_FRAME} if index is empty
+     */
+    long nearestFrameBoundUs(long timeUs) {
+        return nearest(mFrameBoundsUs, timeUs);
+    }
+
+    /**
+     * @return start of sync frame that is closest to {@code timeUs}, or {@link #NO_FRAME} if index has no sync frames
+     */
+    long nearestSyncFrameUs(long timeUs) {
+        return nearest(mSyncFramesUs, timeUs);
+    }
+
+    /**
+     * Snaps trim range in {@code rangeUs} to frame bounds, and its start to sync frames if
+     * {@code isStartAtSyncFrame}. Snapped range is kept between {@code minLengthUs} and {@code maxLengthUs}
+     * by moving its end to another frame bound, or its start if end can't move
+     *
+     * @param rangeUs start and end of range, replaced with snapped ones
+     * @return false if index has no range within limits near the given one, {@code rangeUs} is left intact
+     */
+    boolean snapRange(long[] rangeUs, boolean isStartAtSyncFrame, long minLengthUs, long maxLengthUs) {
+        long[] startsUs = isStartAtSyncFrame ? mSyncFramesUs : mFrameBoundsUs;
+
+        if (startsUs.length == 0 || mFrameBoundsUs.length == 0) {
+            return false;
+        }
+
+        long startUs = nearest(startsUs, rangeUs[0]);
+        long endUs = nearest(mFrameBoundsUs, rangeUs[1]);
+
+        if (endUs - startUs > maxLengthUs) {
+            endUs = floor(mFrameBoundsUs, startUs + maxLengthUs);
+        } else if (endUs - startUs < minLengthUs) {
+            long laterEndUs = ceil(mFrameBoundsUs, startUs + minLengthUs);
+
+            if (laterEndUs != NO_FRAME) {
+                endUs = laterEndUs;
+            } else {
+                //range is at the end of video
+                startUs = floor(startsUs, endUs - minLengthUs);
+            }
+        }
+
+        if (startUs == NO_FRAME || endUs == NO_FRAME || endUs - startUs < minLengthUs || endUs - startUs > maxLengthUs) {
+            return false;
+        }
+
+        rangeUs[0] = startUs;
+        rangeUs[1] = endUs;
+        return true;
+    }
+
+    /**
+     * @return the latest of {@code timesUs} that isn't after {@code timeUs}, or {@link #NO_FRAME}
+     */
+    private static long floor(long[] timesUs, long timeUs) {
+        int index = Arrays.binarySearch(timesUs, timeUs);
+        int previous = index >= 0 ? index : -index - 2;
+
+        return previous >= 0 ? timesUs[previous] : NO_FRAME;
+    }
+
+    /**
+     * @return the earliest of {@code timesUs} that isn't before {@code timeUs}, or {@link #NO_FRAME}
+     */
+    private static long ceil(long[] timesUs, long timeUs) {
+        int index = Arrays.binarySearch(timesUs, timeUs);
+        int next = index >= 0 ? index : -index - 1;
+
+        return next < timesUs.length ? timesUs[next] : NO_FRAME;
+    }
+
+    private static long nearest(long[] timesUs, long timeUs) {
+        if (timesUs.length == 0) {
+            return NO_FRAME;
+        }
+
+        int index = Arrays.binarySearch(timesUs, timeUs);
+
+        if (index >= 0) {
+            return timeUs;
+        }
+
+        int next = -index - 1;
+
+        if (next == 0) {
+            return timesUs[0];
+        }
+
+        if (next == timesUs.length) {
+            return timesUs[timesUs.length - 1];
+        }
+
+        return timesUs[next] - timeUs < timeUs - timesUs[next - 1] ? timesUs[next] : timesUs[next - 1];
+    }
+}
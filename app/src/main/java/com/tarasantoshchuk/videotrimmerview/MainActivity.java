@@ -1,15 +1,12 @@
 package com.tarasantoshchuk.videotrimmerview;
 
+import android.content.res.AssetFileDescriptor;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.view.View;
 import android.widget.TextView;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -19,19 +16,6 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        File file = new File("/storage/emulated/0/video2.mp4");
-
-        if(!file.exists()) {
-            InputStream fileStream = getResources().openRawResource(R.raw.video);
-
-            try {
-                FileOutputStream fileOutput = new FileOutputStream(file);
-                copyStream(fileStream, fileOutput);
-
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
@@ -47,15 +31,33 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        mTrimmer.setScrubPreviewEnabled(true);
 
-    }
+        mTrimmer.setVisibility(View.INVISIBLE);
+        mTrimmer.setOnVideoLoadedListener(new Trimmer.OnVideoLoadedListener() {
+            @Override
+            public void onVideoLoaded(float durationMs) {
+                mTrimmer.setVisibility(View.VISIBLE);
+            }
+        });
 
-    public static void copyStream(InputStream input, OutputStream output) throws IOException {
-        byte[] buffer = new byte[512];
-        int bytesRead;
+        //raw resources are stored uncompressed, so decoders read video right from apk
+        AssetFileDescriptor videoFd = getResources().openRawResourceFd(R.raw.video);
 
-        while ((bytesRead = input.read(buffer)) != -1) {
-            output.write(buffer, 0, bytesRead);
+        try {
+            //trimmer reads its own duplicate of descriptor
+            mTrimmer.setVideoSource(videoFd.getFileDescriptor(), videoFd.getStartOffset(), videoFd.getLength());
+        } finally {
+            try {
+                videoFd.close();
+            } catch (IOException ignored) {
+            }
         }
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mTrimmer.releaseVideoSource();
+    }
 }
@@ -0,0 +1,142 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.media.MediaMetadataRetriever;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Bounded pool of {@link MediaMetadataRetriever} instances opened on the same source.
+ * {@link MediaMetadataRetriever} is not thread-safe, so every decoding thread of
+ * {@link #scheduler()} borrows its own instance with {@link #acquire()}
+ * and gives it back with {@link #release(MediaMetadataRetriever)}.
+ */
+class MetadataRetrieverPool {
+    private final VideoSource mSource;
+    private final int mSize;
+
+    private final BlockingQueue<MediaMetadataRetriever> mIdleRetrievers;
+    private final List<MediaMetadataRetriever> mAllRetrievers;
+
+    private final ExecutorService mExecutor;
+    private final Scheduler mScheduler;
+
+    private boolean mIsShutDown;
+
+    MetadataRetrieverPool(VideoSource source) {
+        this(source, Runtime.getRuntime().availableProcessors(), Thread.NORM_PRIORITY - 1);
+    }
+
+    MetadataRetrieverPool(VideoSource source, int size, int threadPriority) {
+        mSource = source;
+        mSize = Math.max(1, size);
+
+        mIdleRetrievers = new ArrayBlockingQueue<>(mSize);
+        mAllRetrievers = new ArrayList<>(mSize);
+
+        mExecutor = Executors.newFixedThreadPool(mSize, new DecoderThreadFactory(threadPriority));
+        mScheduler = Schedulers.from(mExecutor);
+    }
+
+    /**
+     * @return scheduler with exactly one thread per pooled retriever,
+     * so {@link #acquire()} called on it never waits for another thread
+     */
+    Scheduler scheduler() {
+        return mScheduler;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    MediaMetadataRetriever acquire() throws InterruptedException {
+        MediaMetadataRetriever retriever = mIdleRetrievers.poll();
+
+        if (retriever != null) {
+            return retriever;
+        }
+
+        synchronized (this) {
+            if (mIsShutDown) {
+                throw new InterruptedException("pool is shut down");
+            }
+
+            if (mAllRetrievers.size() < mSize) {
+                retriever = new MediaMetadataRetriever();
+                mAllRetrievers.add(retriever);
+            }
+        }
+
+        if (retriever != null) {
+            try {
+                mSource.setDataSource(retriever);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    mAllRetrievers.remove(retriever);
+                }
+                retriever.release();
+                throw e;
+            }
+
+            return retriever;
+        }
+
+        return mIdleRetrievers.take();
+    }
+
+    synchronized void release(MediaMetadataRetriever retriever) {
+        if (mIsShutDown) {
+            retriever.release();
+        } else {
+            mIdleRetrievers.offer(retriever);
+        }
+    }
+
+    /**
+     * Interrupts pending decodes and releases native resources of all retrievers.
+     * Retrievers that are still in use are released as soon as they are returned to the pool.
+     */
+    synchronized void shutdown() {
+        if (mIsShutDown) {
+            return;
+        }
+
+        mIsShutDown = true;
+        mExecutor.shutdownNow();
+
+        MediaMetadataRetriever retriever;
+        while ((retriever = mIdleRetrievers.poll()) != null) {
+            retriever.release();
+        }
+    }
+
+    synchronized boolean isShutDown() {
+        return mIsShutDown;
+    }
+
+    private static class DecoderThreadFactory implements ThreadFactory {
+        private final AtomicInteger mThreadNumber = new AtomicInteger();
+        private final int mThreadPriority;
+
+        DecoderThreadFactory(int threadPriority) {
+            mThreadPriority = threadPriority;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TrimmerDecoder-" + mThreadNumber.incrementAndGet());
+            thread.setPriority(mThreadPriority);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import java.util.Arrays;
+
+/**
+ * Writes nested ISO-BMFF boxes into growing byte array, box sizes are filled in when boxes are ended
+ */
+class Mp4BoxWriter {
+    private byte[] mBytes = new byte[4096];
+    private int mSize;
+
+    private int[] mOpenBoxes = new int[16];
+    private int mDepth;
+
+    void startBox(int type) {
+        if (mDepth == mOpenBoxes.length) {
+            mOpenBoxes = Arrays.copyOf(mOpenBoxes, mDepth * 2);
+        }
+
+        mOpenBoxes[mDepth++] = mSize;
+
+        writeInt(0);
+        writeInt(type);
+    }
+
+    void startFullBox(int type, int version, int flags) {
+        startBox(type);
+        writeInt(version << 24 | flags);
+    }
+
+    void endBox() {
+        int start = mOpenBoxes[--mDepth];
+        int size = mSize - start;
+
+        mBytes[start] = (byte) (size >>> 24);
+        mBytes[start + 1] = (byte) (size >>> 16);
+        mBytes[start + 2] = (byte) (size >>> 8);
+        mBytes[start + 3] = (byte) size;
+    }
+
+    void writeByte(int value) {
+        ensureCapacity(1);
+        mBytes[mSize++] = (byte) value;
+    }
+
+    void writeShort(int value) {
+        writeByte(value >>> 8);
+        writeByte(value);
+    }
+
+    void writeInt(int value) {
+        ensureCapacity(4);
+        mBytes[mSize++] = (byte) (value >>> 24);
+        mBytes[mSize++] = (byte) (value >>> 16);
+        mBytes[mSize++] = (byte) (value >>> 8);
+        mBytes[mSize++] = (byte) value;
+    }
+
+    void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    void writeZeros(int count) {
+        ensureCapacity(count);
+        Arrays.fill(mBytes, mSize, mSize + count, (byte) 0);
+        mSize += count;
+    }
+
+    void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, mBytes, mSize, bytes.length);
+        mSize += bytes.length;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    byte[] toByteArray() {
+        if (mDepth != 0) {
+            throw new IllegalStateException(mDepth + " boxes aren't ended");
+        }
+
+        return Arrays.copyOf(mBytes, mSize);
+    }
+
+    private void ensureCapacity(int count) {
+        if (mSize + count > mBytes.length) {
+            mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length * 2, mSize + count));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Header and sample tables of ISO-BMFF (mp4) file, as read by {@link Mp4Parser}
+ */
+class Mp4Movie {
+    long mTimescale;
+    long mDuration;
+
+    /**
+     * ftyp box of the file, or null if file has none
+     */
+    byte[] mFileTypeBox;
+
+    final List<Mp4Track> mTracks = new ArrayList<>();
+
+    long durationUs() {
+        return mDuration * 1_000_000 / mTimescale;
+    }
+
+    /**
+     * @return first video track, or null if there is none
+     */
+    Mp4Track videoTrack() {
+        for (Mp4Track track : mTracks) {
+            if (track.isVideo()) {
+                return track;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,595 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads {@link Mp4Movie} from ISO-BMFF file. Only top level box headers are read until moov box
+ * is found, so moov at the end of file is reached by seeking over media data. Then moov is
+ * memory-mapped and parsed, media data is never read.
+ */
+class Mp4Parser {
+    static final int TYPE_FTYP = fourCc("ftyp");
+    static final int TYPE_MOOV = fourCc("moov");
+    static final int TYPE_MVHD = fourCc("mvhd");
+    static final int TYPE_TRAK = fourCc("trak");
+    static final int TYPE_TKHD = fourCc("tkhd");
+    static final int TYPE_EDTS = fourCc("edts");
+    static final int TYPE_ELST = fourCc("elst");
+    static final int TYPE_MDIA = fourCc("mdia");
+    static final int TYPE_MDHD = fourCc("mdhd");
+    static final int TYPE_HDLR = fourCc("hdlr");
+    static final int TYPE_MINF = fourCc("minf");
+    static final int TYPE_STBL = fourCc("stbl");
+    static final int TYPE_STSD = fourCc("stsd");
+    static final int TYPE_STTS = fourCc("stts");
+    static final int TYPE_CTTS = fourCc("ctts");
+    static final int TYPE_STSS = fourCc("stss");
+    static final int TYPE_STSZ = fourCc("stsz");
+    static final int TYPE_STSC = fourCc("stsc");
+    static final int TYPE_STCO = fourCc("stco");
+    static final int TYPE_CO64 = fourCc("co64");
+    static final int TYPE_MDAT = fourCc("mdat");
+
+    static final int HEADER_SIZE = 8;
+    static final int LARGE_HEADER_SIZE = 16;
+
+    private static final int MAX_FILE_TYPE_BOX_SIZE = 4096;
+
+    //position of width in visual sample entry, counted from the start of stsd box
+    private static final int VISUAL_ENTRY_WIDTH_POSITION = 48;
+
+    private Mp4Parser() {
+    }
+
+    static int fourCc(String type) {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+
+    /**
+     * Must not be called on main thread
+     *
+     * @param offset position of the file start in {@code channel}
+     * @param length length of the file, may exceed channel size
+     * @throws IOException if file can't be read or isn't a valid mp4
+     */
+    static Mp4Movie parse(FileChannel channel, long offset, long length) throws IOException {
+        return parse(channel, offset, length, true);
+    }
+
+    /**
+     * Same as {@link #parse(FileChannel, long, long)}, but reads only headers of tracks,
+     * sample arrays of returned tracks are null
+     */
+    static Mp4Movie probe(FileChannel channel, long offset, long length) throws IOException {
+        return parse(channel, offset, length, false);
+    }
+
+    private static Mp4Movie parse(FileChannel channel, long offset, long length, boolean withSamples) throws IOException {
+        try {
+            return parseFile(channel, offset, length, withSamples);
+        } catch (RuntimeException e) {
+            //truncated boxes underflow their buffers, file is malformed rather than the caller
+            throw new IOException("malformed mp4", e);
+        }
+    }
+
+    private static Mp4Movie parseFile(FileChannel channel, long offset, long length, boolean withSamples) throws IOException {
+        long end = Math.min(offset + length, channel.size());
+        ByteBuffer header = ByteBuffer.allocate(LARGE_HEADER_SIZE);
+        Mp4Movie movie = new Mp4Movie();
+        long position = offset;
+
+        while (end - position >= HEADER_SIZE) {
+            header.clear();
+            header.limit((int) Math.min(LARGE_HEADER_SIZE, end - position));
+            readFully(channel, header, position);
+            header.flip();
+
+            long size = header.getInt() & 0xffffffffL;
+            int type = header.getInt();
+            int headerSize = HEADER_SIZE;
+
+            if (size == 1 && header.remaining() >= 8) {
+                size = header.getLong();
+                headerSize = LARGE_HEADER_SIZE;
+            } else if (size == 0) {
+                size = end - position;
+            }
+
+            if (size < headerSize || size > end - position) {
+                throw new IOException("malformed box at " + (position - offset));
+            }
+
+            if (type == TYPE_FTYP && size <= MAX_FILE_TYPE_BOX_SIZE) {
+                ByteBuffer fileType = ByteBuffer.allocate((int) size);
+                readFully(channel, fileType, position);
+                movie.mFileTypeBox = fileType.array();
+            } else if (type == TYPE_MOOV) {
+                ByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                moov.position(headerSize);
+
+                parseMovie(moov, movie, end - offset, withSamples);
+                return movie;
+            }
+
+            position += size;
+        }
+
+        throw new IOException("file has no moov box");
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+
+            if (read < 0) {
+                throw new EOFException();
+            }
+
+            position += read;
+        }
+    }
+
+    /**
+     * @return next child box of {@code parent}, positioned at its payload
+     */
+    private static ByteBuffer nextBox(ByteBuffer parent) throws IOException {
+        int start = parent.position();
+        long size = parent.getInt(start) & 0xffffffffL;
+        int headerSize = HEADER_SIZE;
+
+        if (size == 1 && parent.remaining() >= LARGE_HEADER_SIZE) {
+            size = parent.getLong(start + HEADER_SIZE);
+            headerSize = LARGE_HEADER_SIZE;
+        } else if (size == 0) {
+            size = parent.remaining();
+        }
+
+        if (size < headerSize || size > parent.remaining()) {
+            throw new IOException("malformed box");
+        }
+
+        ByteBuffer box = parent.slice();
+        box.limit((int) size);
+        box.position(headerSize);
+
+        parent.position(start + (int) size);
+
+        return box;
+    }
+
+    private static int type(ByteBuffer box) {
+        return box.getInt(4);
+    }
+
+    private static byte[] bytes(ByteBuffer box) {
+        byte[] bytes = new byte[box.limit()];
+        ByteBuffer duplicate = box.duplicate();
+
+        duplicate.position(0);
+        duplicate.get(bytes);
+
+        return bytes;
+    }
+
+    private static void skip(ByteBuffer buffer, int count) {
+        buffer.position(buffer.position() + count);
+    }
+
+    private static long unsignedInt(ByteBuffer buffer) {
+        return buffer.getInt() & 0xffffffffL;
+    }
+
+    /**
+     * @return version of full box, flags are skipped
+     */
+    private static int version(ByteBuffer box) {
+        int version = box.get() & 0xff;
+        skip(box, 3);
+        return version;
+    }
+
+    /**
+     * @param fileSize size of the file, samples can't take more than that
+     */
+    private static void parseMovie(ByteBuffer moov, Mp4Movie movie, long fileSize, boolean withSamples) throws IOException {
+        while (moov.remaining() >= HEADER_SIZE) {
+            ByteBuffer box = nextBox(moov);
+            int type = type(box);
+
+            if (type == TYPE_MVHD) {
+                parseMovieHeader(box, movie);
+            } else if (type == TYPE_TRAK) {
+                movie.mTracks.add(parseTrack(box, fileSize, withSamples));
+            }
+        }
+
+        if (movie.mTimescale == 0) {
+            throw new IOException("moov has no valid mvhd");
+        }
+    }
+
+    private static void parseMovieHeader(ByteBuffer mvhd, Mp4Movie movie) {
+        if (version(mvhd) == 1) {
+            skip(mvhd, 16);
+            movie.mTimescale = unsignedInt(mvhd);
+            movie.mDuration = mvhd.getLong();
+        } else {
+            skip(mvhd, 8);
+            movie.mTimescale = unsignedInt(mvhd);
+            movie.mDuration = unsignedInt(mvhd);
+        }
+    }
+
+    private static Mp4Track parseTrack(ByteBuffer trak, long fileSize, boolean withSamples) throws IOException {
+        Mp4Track track = new Mp4Track();
+        ByteBuffer mdia = null;
+
+        while (trak.remaining() >= HEADER_SIZE) {
+            ByteBuffer box = nextBox(trak);
+            int type = type(box);
+
+            if (type == TYPE_TKHD) {
+                parseTrackHeader(box, track);
+            } else if (type == TYPE_EDTS) {
+                parseEdits(box, track);
+            } else if (type == TYPE_MDIA) {
+                mdia = box;
+            }
+        }
+
+        if (mdia == null) {
+            throw new IOException("track has no mdia");
+        }
+
+        parseMedia(mdia, track, fileSize, withSamples);
+        return track;
+    }
+
+    private static void parseTrackHeader(ByteBuffer tkhd, Mp4Track track) {
+        int version = version(tkhd);
+        track.mTrackFlags = tkhd.getInt(tkhd.position() - 4) & 0xffffff;
+
+        if (version == 1) {
+            skip(tkhd, 16);
+            track.mTrackId = tkhd.getInt();
+            skip(tkhd, 4);
+            track.mDuration = tkhd.getLong();
+        } else {
+            skip(tkhd, 8);
+            track.mTrackId = tkhd.getInt();
+            skip(tkhd, 4);
+            track.mDuration = unsignedInt(tkhd);
+        }
+
+        skip(tkhd, 8);
+        track.mLayer = tkhd.getShort();
+        track.mAlternateGroup = tkhd.getShort();
+        track.mVolume = tkhd.getShort();
+        skip(tkhd, 2);
+
+        track.mMatrix = new int[9];
+
+        for (int i = 0; i < track.mMatrix.length; i++) {
+            track.mMatrix[i] = tkhd.getInt();
+        }
+
+        track.mWidth = tkhd.getInt();
+        track.mHeight = tkhd.getInt();
+    }
+
+    private static void parseEdits(ByteBuffer edts, Mp4Track track) throws IOException {
+        while (edts.remaining() >= HEADER_SIZE) {
+            ByteBuffer elst = nextBox(edts);
+
+            if (type(elst) != TYPE_ELST) {
+                continue;
+            }
+
+            int version = version(elst);
+            long count = unsignedInt(elst);
+
+            if (count > elst.remaining() / (version == 1 ? 20 : 12)) {
+                throw new IOException("malformed elst");
+            }
+
+            for (long i = 0; i < count; i++) {
+                long mediaTime;
+
+                if (version == 1) {
+                    skip(elst, 8);
+                    mediaTime = elst.getLong();
+                } else {
+                    skip(elst, 4);
+                    mediaTime = elst.getInt();
+                }
+
+                skip(elst, 4);
+
+                //empty edits only delay the track, leading delay isn't kept in trimmed file
+                if (mediaTime != -1) {
+                    track.mEditMediaTime = mediaTime;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void parseMedia(ByteBuffer mdia, Mp4Track track, long fileSize, boolean withSamples) throws IOException {
+        ByteBuffer minf = null;
+
+        while (mdia.remaining() >= HEADER_SIZE) {
+            ByteBuffer box = nextBox(mdia);
+            int type = type(box);
+
+            if (type == TYPE_MDHD) {
+                if (version(box) == 1) {
+                    skip(box, 16);
+                    track.mTimescale = unsignedInt(box);
+                    skip(box, 8);
+                } else {
+                    skip(box, 8);
+                    track.mTimescale = unsignedInt(box);
+                    skip(box, 4);
+                }
+
+                track.mLanguage = box.getShort() & 0xffff;
+            } else if (type == TYPE_HDLR) {
+                track.mHandlerBox = bytes(box);
+                track.mHandlerType = box.getInt(box.position() + 8);
+            } else if (type == TYPE_MINF) {
+                minf = box;
+            }
+        }
+
+        if (track.mTimescale == 0 || minf == null) {
+            throw new IOException("track " + track.mTrackId + " has no valid mdhd or minf");
+        }
+
+        parseMediaInformation(minf, track, fileSize, withSamples);
+    }
+
+    private static void parseMediaInformation(ByteBuffer minf, Mp4Track track, long fileSize, boolean withSamples) throws IOException {
+        List<byte[]> otherBoxes = new ArrayList<>();
+        ByteBuffer stbl = null;
+
+        while (minf.remaining() >= HEADER_SIZE) {
+            ByteBuffer box = nextBox(minf);
+
+            if (type(box) == TYPE_STBL) {
+                stbl = box;
+            } else {
+                otherBoxes.add(bytes(box));
+            }
+        }
+
+        if (stbl == null) {
+            throw new IOException("track " + track.mTrackId + " has no stbl");
+        }
+
+        track.mMediaInformationBoxes = otherBoxes.toArray(new byte[otherBoxes.size()][]);
+        parseSampleTable(stbl, track, fileSize, withSamples);
+    }
+
+    private static void parseSampleTable(ByteBuffer stbl, Mp4Track track, long fileSize, boolean withSamples) throws IOException {
+        ByteBuffer stts = null;
+        ByteBuffer ctts = null;
+        ByteBuffer stss = null;
+        ByteBuffer stsz = null;
+        ByteBuffer stsc = null;
+        ByteBuffer chunkOffsets = null;
+
+        while (stbl.remaining() >= HEADER_SIZE) {
+            ByteBuffer box = nextBox(stbl);
+            int type = type(box);
+
+            if (type == TYPE_STSD) {
+                track.mSampleDescriptionBox = bytes(box);
+            } else if (type == TYPE_STTS) {
+                stts = box;
+            } else if (type == TYPE_CTTS) {
+                ctts = box;
+            } else if (type == TYPE_STSS) {
+                stss = box;
+            } else if (type == TYPE_STSZ) {
+                stsz = box;
+            } else if (type == TYPE_STSC) {
+                stsc = box;
+            } else if (type == TYPE_STCO || type == TYPE_CO64) {
+                chunkOffsets = box;
+            }
+        }
+
+        if (track.mSampleDescriptionBox != null && track.isVideo()
+                && track.mSampleDescriptionBox.length >= VISUAL_ENTRY_WIDTH_POSITION + 4) {
+            ByteBuffer stsd = ByteBuffer.wrap(track.mSampleDescriptionBox);
+            track.mCodedWidth = stsd.getShort(VISUAL_ENTRY_WIDTH_POSITION) & 0xffff;
+            track.mCodedHeight = stsd.getShort(VISUAL_ENTRY_WIDTH_POSITION + 2) & 0xffff;
+        }
+
+        if (!withSamples) {
+            return;
+        }
+
+        if (track.mSampleDescriptionBox == null || stts == null || stsz == null || stsc == null || chunkOffsets == null) {
+            throw new IOException("track " + track.mTrackId + " has unsupported sample table");
+        }
+
+        parseSizes(stsz, track, fileSize);
+        parseTimes(stts, track);
+        parseOffsets(stsc, chunkOffsets, track);
+
+        if (ctts != null) {
+            parseCompositionOffsets(ctts, track);
+        }
+
+        if (stss != null) {
+            parseSyncSamples(stss, track);
+        }
+    }
+
+    private static void parseSizes(ByteBuffer stsz, Mp4Track track, long fileSize) throws IOException {
+        version(stsz);
+
+        int size = stsz.getInt();
+        int count = stsz.getInt();
+
+        //count of constant size samples isn't backed by table entries, so it's limited by file size instead
+        boolean isValidCount = size == 0 ? count <= stsz.remaining() / 4 : size > 0 && count <= fileSize / size;
+
+        if (count < 0 || !isValidCount) {
+            throw new IOException("malformed stsz");
+        }
+
+        track.mSizes = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            track.mSizes[i] = size != 0 ? size : stsz.getInt();
+        }
+    }
+
+    private static void parseTimes(ByteBuffer stts, Mp4Track track) throws IOException {
+        version(stts);
+
+        int count = track.sampleCount();
+        long entryCount = unsignedInt(stts);
+
+        if (entryCount > stts.remaining() / 8) {
+            throw new IOException("malformed stts");
+        }
+
+        track.mDurations = new int[count];
+        track.mDecodeTimes = new long[count];
+
+        int sample = 0;
+        long time = 0;
+
+        for (long i = 0; i < entryCount && sample < count; i++) {
+            long sampleCount = unsignedInt(stts);
+            int delta = stts.getInt();
+
+            for (long j = 0; j < sampleCount && sample < count; j++, sample++) {
+                track.mDurations[sample] = delta;
+                track.mDecodeTimes[sample] = time;
+                time += delta;
+            }
+        }
+
+        if (sample < count) {
+            throw new IOException("stts of track " + track.mTrackId + " is shorter than stsz");
+        }
+    }
+
+    private static void parseCompositionOffsets(ByteBuffer ctts, Mp4Track track) throws IOException {
+        version(ctts);
+
+        int count = track.sampleCount();
+        long entryCount = unsignedInt(ctts);
+
+        if (entryCount > ctts.remaining() / 8) {
+            throw new IOException("malformed ctts");
+        }
+
+        track.mCompositionOffsets = new int[count];
+
+        int sample = 0;
+
+        for (long i = 0; i < entryCount && sample < count; i++) {
+            long sampleCount = unsignedInt(ctts);
+            //version 0 offsets are unsigned, but real files never exceed signed range
+            int offset = ctts.getInt();
+
+            for (long j = 0; j < sampleCount && sample < count; j++, sample++) {
+                track.mCompositionOffsets[sample] = offset;
+            }
+        }
+    }
+
+    private static void parseSyncSamples(ByteBuffer stss, Mp4Track track) throws IOException {
+        version(stss);
+
+        long count = unsignedInt(stss);
+
+        if (count > stss.remaining() / 4) {
+            throw new IOException("malformed stss");
+        }
+
+        track.mSyncSamples = new int[(int) count];
+
+        for (int i = 0; i < count; i++) {
+            //sample numbers are 1-based
+            int sample = stss.getInt() - 1;
+
+            if (sample < 0 || sample >= track.sampleCount()) {
+                throw new IOException("sync sample " + (sample + 1) + " of track " + track.mTrackId + " doesn't exist");
+            }
+
+            track.mSyncSamples[i] = sample;
+        }
+
+        //lookups are binary searches, so out of order tables are tolerated by sorting them
+        Arrays.sort(track.mSyncSamples);
+    }
+
+    private static void parseOffsets(ByteBuffer stsc, ByteBuffer chunkOffsets, Mp4Track track) throws IOException {
+        boolean isLarge = type(chunkOffsets) == TYPE_CO64;
+        version(chunkOffsets);
+
+        long chunkCount = unsignedInt(chunkOffsets);
+
+        if (chunkCount > chunkOffsets.remaining() / (isLarge ? 8 : 4)) {
+            throw new IOException("malformed chunk offsets");
+        }
+
+        version(stsc);
+
+        long entryCount = unsignedInt(stsc);
+
+        if (entryCount > stsc.remaining() / 12) {
+            throw new IOException("malformed stsc");
+        }
+
+        int count = track.sampleCount();
+
+        track.mOffsets = new long[count];
+        track.mDescriptionIndices = new int[count];
+
+        int sample = 0;
+        int entryStart = stsc.position();
+
+        for (int i = 0; i < entryCount && sample < count; i++) {
+            long firstChunk = stsc.getInt(entryStart + 12 * i) & 0xffffffffL;
+            long samplesPerChunk = stsc.getInt(entryStart + 12 * i + 4) & 0xffffffffL;
+            int descriptionIndex = stsc.getInt(entryStart + 12 * i + 8);
+            long nextFirstChunk = i + 1 < entryCount ? stsc.getInt(entryStart + 12 * (i + 1)) & 0xffffffffL : chunkCount + 1;
+
+            //chunk numbers are 1-based
+            if (firstChunk < 1) {
+                throw new IOException("malformed stsc");
+            }
+
+            for (long chunk = firstChunk; chunk < nextFirstChunk && chunk <= chunkCount && sample < count; chunk++) {
+                int chunkIndex = (int) (chunk - 1);
+                long offset = isLarge
+                        ? chunkOffsets.getLong(chunkOffsets.position() + 8 * chunkIndex)
+                        : chunkOffsets.getInt(chunkOffsets.position() + 4 * chunkIndex) & 0xffffffffL;
+
+                for (long j = 0; j < samplesPerChunk && sample < count; j++, sample++) {
+                    track.mOffsets[sample] = offset;
+                    track.mDescriptionIndices[sample] = descriptionIndex;
+                    offset += track.mSizes[sample];
+                }
+            }
+        }
+
+        if (sample < count) {
+            throw new IOException("chunks of track " + track.mTrackId + " don't cover all samples");
+        }
+    }
+}
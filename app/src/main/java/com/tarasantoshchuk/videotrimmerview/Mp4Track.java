@@ -0,0 +1,106 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import java.util.Arrays;
+
+/**
+ * Track of {@link Mp4Movie} with its sample tables unpacked into per-sample arrays,
+ * sample {@code i} is the i-th sample in decode order
+ */
+class Mp4Track {
+    static final int HANDLER_VIDEO = Mp4Parser.fourCc("vide");
+    static final int HANDLER_SOUND = Mp4Parser.fourCc("soun");
+
+    int mTrackId;
+    int mHandlerType;
+
+    //tkhd
+    int mTrackFlags;
+    int mLayer;
+    int mAlternateGroup;
+    int mVolume;
+    int[] mMatrix;
+    int mWidth;
+    int mHeight;
+
+    /**
+     * Duration in movie timescale
+     */
+    long mDuration;
+
+    //first visual sample entry of stsd, zero for non-video tracks
+    int mCodedWidth;
+    int mCodedHeight;
+
+    //mdhd
+    long mTimescale;
+    int mLanguage;
+
+    /**
+     * Media time that is presented at the start of the track, from the first non-empty edit
+     */
+    long mEditMediaTime;
+
+    //boxes that are copied to trimmed track as is
+    byte[] mHandlerBox;
+    byte[] mSampleDescriptionBox;
+    byte[][] mMediaInformationBoxes;
+
+    long[] mDecodeTimes;
+    int[] mDurations;
+    int[] mCompositionOffsets;
+    int[] mSizes;
+    long[] mOffsets;
+    int[] mDescriptionIndices;
+
+    /**
+     * Sorted indices of sync samples, or null if every sample is sync sample
+     */
+    int[] mSyncSamples;
+
+    /**
+     * @return clockwise rotation of the track from its tkhd matrix, multiple of 90 degrees
+     */
+    int rotationDegrees() {
+        if (mMatrix == null) {
+            return 0;
+        }
+
+        //matrix values are 16.16 fixed point, only their signs matter for rotation
+        double degrees = Math.toDegrees(Math.atan2(mMatrix[1], mMatrix[0]));
+        int rotation = (int) (Math.round(degrees / 90) * 90);
+
+        return (rotation + 360) % 360;
+    }
+
+    int sampleCount() {
+        return mSizes.length;
+    }
+
+    boolean isVideo() {
+        return mHandlerType == HANDLER_VIDEO;
+    }
+
+    boolean isAudio() {
+        return mHandlerType == HANDLER_SOUND;
+    }
+
+    boolean isSyncSample(int sample) {
+        return mSyncSamples == null || Arrays.binarySearch(mSyncSamples, sample) >= 0;
+    }
+
+    /**
+     * @return presentation time of sample in track timescale, with edit list applied
+     */
+    long presentationTime(int sample) {
+        long compositionOffset = mCompositionOffsets != null ? mCompositionOffsets[sample] : 0;
+        return mDecodeTimes[sample] + compositionOffset - mEditMediaTime;
+    }
+
+    long toTrackTime(long timeUs) {
+        return timeUs * mTimescale / 1_000_000;
+    }
+
+    long toUs(long trackTime) {
+        return trackTime * 1_000_000 / mTimescale;
+    }
+}
@@ -0,0 +1,664 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * Trims mp4 file without re-encoding: selected samples of every track are copied into new file
+ * with {@link FileChannel#transferTo}, and sample tables are rewritten for them. Trimmed file
+ * starts at the sync sample of video track at or before requested start, since nothing before it
+ * can be decoded.
+ */
+class Mp4TrimExporter {
+    private static final long CHUNK_DURATION_US = 500_000;
+
+    private static final int FIXED_POINT_ONE = 0x00010000;
+    private static final int[] IDENTITY_MATRIX = {FIXED_POINT_ONE, 0, 0, 0, FIXED_POINT_ONE, 0, 0, 0, 0x40000000};
+
+    private static final int TYPE_ISOM = Mp4Parser.fourCc("isom");
+    private static final int TYPE_ISO2 = Mp4Parser.fourCc("iso2");
+    private static final int TYPE_MP41 = Mp4Parser.fourCc("mp41");
+
+    private Mp4TrimExporter() {
+    }
+
+    /**
+     * Copies samples of mp4 file in {@code input} that are presented between {@code startUs} and
+     * {@code endUs} into {@code output}. Works on subscribing thread, emits copied fraction of samples
+     * from 0 to 1. Partially written output is deleted on error or unsubscription.
+     *
+     * @param offset position of the file start in {@code input}
+     * @param length length of the file, may exceed channel size
+     */
+    static Observable<Float> export(final FileChannel input, final long offset, final long length,
+                                    final File output, final long startUs, final long endUs) {
+        return Observable.create(new Observable.OnSubscribe<Float>() {
+            @Override
+            public void call(Subscriber<? super Float> subscriber) {
+                boolean isWritten = false;
+
+                try {
+                    isWritten = export(input, offset, length, output, startUs, endUs, subscriber);
+                } catch (IOException | RuntimeException e) {
+                    subscriber.onError(e);
+                } finally {
+                    if (!isWritten) {
+                        output.delete();
+                    }
+                }
+
+                if (isWritten) {
+                    subscriber.onCompleted();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return false if subscriber unsubscribed before output was written
+     */
+    private static boolean export(FileChannel input, long offset, long length, File output,
+                                  long startUs, long endUs, Subscriber<? super Float> subscriber) throws IOException {
+        Mp4Movie movie = Mp4Parser.parse(input, offset, length);
+
+        if (movie.mTracks.isEmpty()) {
+            throw new IOException("file has no tracks");
+        }
+
+        Mp4Track reference = movie.videoTrack() != null ? movie.videoTrack() : movie.mTracks.get(0);
+        int referenceStart = syncSampleAtOrBefore(reference, reference.toTrackTime(startUs));
+        long referenceStartTime = Math.max(0, reference.presentationTime(referenceStart));
+        //rounded up, so that converting it back to track time doesn't select previous sync sample
+        long actualStartUs = (referenceStartTime * 1_000_000 + reference.mTimescale - 1) / reference.mTimescale;
+
+        List<Selection> selections = new ArrayList<>();
+        List<Chunk> chunks = new ArrayList<>();
+
+        for (Mp4Track track : movie.mTracks) {
+            Selection selection = select(track, actualStartUs, endUs, movie.mTimescale);
+
+            if (selection != null) {
+                selections.add(selection);
+                chunks.addAll(selection.mChunks);
+            }
+        }
+
+        if (selections.isEmpty()) {
+            throw new IOException("no samples between " + actualStartUs + " and " + endUs + " us");
+        }
+
+        //chunks of all tracks are interleaved by time, so player reads file front to back
+        Collections.sort(chunks, new Comparator<Chunk>() {
+            @Override
+            public int compare(Chunk first, Chunk second) {
+                return first.mStartUs < second.mStartUs ? -1 : (first.mStartUs == second.mStartUs ? 0 : 1);
+            }
+        });
+
+        long dataSize = 0;
+
+        for (Chunk chunk : chunks) {
+            chunk.mOutputOffset = dataSize;
+            dataSize += chunk.size();
+        }
+
+        byte[] fileType = movie.mFileTypeBox != null ? movie.mFileTypeBox : defaultFileType();
+        boolean isLargeData = dataSize + Mp4Parser.HEADER_SIZE > 0xffffffffL;
+        int dataHeaderSize = isLargeData ? Mp4Parser.LARGE_HEADER_SIZE : Mp4Parser.HEADER_SIZE;
+
+        //moov size doesn't depend on offsets, only on their width
+        long smallOffsetsEnd = fileType.length + writeMovie(movie, selections, 0, false).length + dataHeaderSize + dataSize;
+        boolean isLargeOffsets = smallOffsetsEnd > 0xffffffffL;
+        long dataStart = fileType.length + writeMovie(movie, selections, 0, isLargeOffsets).length + dataHeaderSize;
+        byte[] movieBox = writeMovie(movie, selections, dataStart, isLargeOffsets);
+
+        FileOutputStream outputStream = new FileOutputStream(output);
+
+        try {
+            FileChannel outputChannel = outputStream.getChannel();
+
+            writeFully(outputChannel, ByteBuffer.wrap(fileType));
+            writeFully(outputChannel, ByteBuffer.wrap(movieBox));
+            writeFully(outputChannel, dataHeader(dataSize, isLargeData));
+
+            long copiedSize = 0;
+
+            for (Chunk chunk : chunks) {
+                if (subscriber.isUnsubscribed()) {
+                    return false;
+                }
+
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException();
+                }
+
+                copySamples(input, offset, chunk, outputChannel);
+                copiedSize += chunk.size();
+
+                subscriber.onNext(copiedSize / (float) dataSize);
+            }
+
+            if (dataSize == 0) {
+                subscriber.onNext(1f);
+            }
+
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+
+        return !subscriber.isUnsubscribed();
+    }
+
+    /**
+     * @return latest sync sample in decode order that is presented at or before {@code time},
+     * or first sync sample if every sync sample is presented later
+     */
+    private static int syncSampleAtOrBefore(Mp4Track track, long time) {
+        if (track.mSyncSamples == null) {
+            int result = 0;
+
+            for (int sample = 0; sample < track.sampleCount(); sample++) {
+                if (track.presentationTime(sample) <= time) {
+                    result = sample;
+                }
+            }
+
+            return result;
+        }
+
+        if (track.mSyncSamples.length == 0) {
+            return 0;
+        }
+
+        int result = track.mSyncSamples[0];
+
+        for (int sample : track.mSyncSamples) {
+            if (track.presentationTime(sample) <= time) {
+                result = sample;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return samples of {@code track} that are needed to present it from {@code startUs} until
+     * {@code endUs}, or null if track has none
+     */
+    private static Selection select(Mp4Track track, long startUs, long endUs, long movieTimescale) {
+        if (track.sampleCount() == 0) {
+            return null;
+        }
+
+        long startTime = track.toTrackTime(startUs);
+        long endTime = track.toTrackTime(endUs);
+
+        int first = syncSampleAtOrBefore(track, startTime);
+        int end = first;
+        long presentationEnd = Long.MIN_VALUE;
+
+        //with reordered frames, later samples in decode order may still be presented before the end
+        for (int sample = first; sample < track.sampleCount(); sample++) {
+            long presentationTime = track.presentationTime(sample);
+
+            if (presentationTime < endTime) {
+                end = sample + 1;
+                presentationEnd = Math.max(presentationEnd, presentationTime + track.mDurations[sample]);
+            }
+        }
+
+        if (end == first) {
+            return null;
+        }
+
+        Selection selection = new Selection(track, first, end);
+        long firstDecodeTime = track.mDecodeTimes[first];
+
+        //media time of trimmed track that is presented at trimmed movie start
+        long mediaTime = startTime + track.mEditMediaTime - firstDecodeTime;
+
+        if (mediaTime < 0) {
+            selection.mEmptyDuration = -mediaTime * movieTimescale / track.mTimescale;
+            mediaTime = 0;
+        }
+
+        long presentedDuration = Math.min(presentationEnd, endTime) - (mediaTime + firstDecodeTime - track.mEditMediaTime);
+
+        selection.mMediaTime = mediaTime;
+        selection.mSegmentDuration = Math.max(0, presentedDuration) * movieTimescale / track.mTimescale;
+        selection.mMediaDuration = track.mDecodeTimes[end - 1] + track.mDurations[end - 1] - firstDecodeTime;
+
+        long chunkDuration = track.toTrackTime(CHUNK_DURATION_US);
+        int chunkStart = first;
+
+        for (int sample = first + 1; sample <= end; sample++) {
+            if (sample == end
+                    || track.mDecodeTimes[sample] - track.mDecodeTimes[chunkStart] >= chunkDuration
+                    || track.mDescriptionIndices[sample] != track.mDescriptionIndices[chunkStart]) {
+                selection.mChunks.add(new Chunk(selection, chunkStart, sample, track.toUs(track.mDecodeTimes[chunkStart] - firstDecodeTime)));
+                chunkStart = sample;
+            }
+        }
+
+        return selection;
+    }
+
+    private static void copySamples(FileChannel input, long offset, Chunk chunk, FileChannel output) throws IOException {
+        Mp4Track track = chunk.mSelection.mTrack;
+        int sample = chunk.mFirst;
+
+        while (sample < chunk.mEnd) {
+            long runOffset = track.mOffsets[sample];
+            long runSize = 0;
+
+            //samples that are adjacent in source are copied in one transfer
+            do {
+                runSize += track.mSizes[sample];
+                sample++;
+            } while (sample < chunk.mEnd && track.mOffsets[sample] == runOffset + runSize);
+
+            transferFully(input, offset + runOffset, runSize, output);
+        }
+    }
+
+    private static void transferFully(FileChannel input, long position, long count, FileChannel output) throws IOException {
+        while (count > 0) {
+            long transferred = input.transferTo(position, count, output);
+
+            if (transferred <= 0) {
+                throw new EOFException("sample data is out of file bounds");
+            }
+
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static byte[] defaultFileType() {
+        Mp4BoxWriter writer = new Mp4BoxWriter();
+
+        writer.startBox(Mp4Parser.TYPE_FTYP);
+        writer.writeInt(TYPE_ISOM);
+        writer.writeInt(0x200);
+        writer.writeInt(TYPE_ISOM);
+        writer.writeInt(TYPE_ISO2);
+        writer.writeInt(TYPE_MP41);
+        writer.endBox();
+
+        return writer.toByteArray();
+    }
+
+    private static ByteBuffer dataHeader(long dataSize, boolean isLarge) {
+        ByteBuffer header = ByteBuffer.allocate(isLarge ? Mp4Parser.LARGE_HEADER_SIZE : Mp4Parser.HEADER_SIZE);
+
+        if (isLarge) {
+            header.putInt(1);
+            header.putInt(Mp4Parser.TYPE_MDAT);
+            header.putLong(dataSize + Mp4Parser.LARGE_HEADER_SIZE);
+        } else {
+            header.putInt((int) (dataSize + Mp4Parser.HEADER_SIZE));
+            header.putInt(Mp4Parser.TYPE_MDAT);
+        }
+
+        header.flip();
+        return header;
+    }
+
+    private static byte[] writeMovie(Mp4Movie movie, List<Selection> selections, long dataStart, boolean isLargeOffsets) {
+        Mp4BoxWriter writer = new Mp4BoxWriter();
+        long duration = 0;
+        int nextTrackId = 1;
+
+        for (Selection selection : selections) {
+            duration = Math.max(duration, selection.duration());
+            nextTrackId = Math.max(nextTrackId, selection.mTrack.mTrackId + 1);
+        }
+
+        writer.startBox(Mp4Parser.TYPE_MOOV);
+
+        int version = version(duration);
+
+        writer.startFullBox(Mp4Parser.TYPE_MVHD, version, 0);
+        writeTime(writer, 0, version);
+        writeTime(writer, 0, version);
+        writer.writeInt((int) movie.mTimescale);
+        writeTime(writer, duration, version);
+        writer.writeInt(FIXED_POINT_ONE);
+        writer.writeShort(0x0100);
+        writer.writeZeros(10);
+        writeMatrix(writer, IDENTITY_MATRIX);
+        writer.writeZeros(24);
+        writer.writeInt(nextTrackId);
+        writer.endBox();
+
+        for (Selection selection : selections) {
+            writeTrack(writer, selection, dataStart, isLargeOffsets);
+        }
+
+        writer.endBox();
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return version of full box that can hold {@code values}, version 1 is only used when needed
+     * since old parsers don't read it
+     */
+    private static int version(long... values) {
+        for (long value : values) {
+            if (value < Integer.MIN_VALUE || value > 0xffffffffL) {
+                return 1;
+            }
+        }
+
+        return 0;
+    }
+
+    private static void writeTime(Mp4BoxWriter writer, long value, int version) {
+        if (version == 1) {
+            writer.writeLong(value);
+        } else {
+            writer.writeInt((int) value);
+        }
+    }
+
+    private static void writeMatrix(Mp4BoxWriter writer, int[] matrix) {
+        for (int value : matrix) {
+            writer.writeInt(value);
+        }
+    }
+
+    private static void writeTrack(Mp4BoxWriter writer, Selection selection, long dataStart, boolean isLargeOffsets) {
+        Mp4Track track = selection.mTrack;
+
+        writer.startBox(Mp4Parser.TYPE_TRAK);
+
+        int version = version(selection.duration());
+
+        writer.startFullBox(Mp4Parser.TYPE_TKHD, version, track.mTrackFlags);
+        writeTime(writer, 0, version);
+        writeTime(writer, 0, version);
+        writer.writeInt(track.mTrackId);
+        writer.writeInt(0);
+        writeTime(writer, selection.duration(), version);
+        writer.writeZeros(8);
+        writer.writeShort(track.mLayer);
+        writer.writeShort(track.mAlternateGroup);
+        writer.writeShort(track.mVolume);
+        writer.writeShort(0);
+        writeMatrix(writer, track.mMatrix != null ? track.mMatrix : IDENTITY_MATRIX);
+        writer.writeInt(track.mWidth);
+        writer.writeInt(track.mHeight);
+        writer.endBox();
+
+        writer.startBox(Mp4Parser.TYPE_EDTS);
+        version = version(selection.mEmptyDuration, selection.mSegmentDuration, selection.mMediaTime);
+
+        writer.startFullBox(Mp4Parser.TYPE_ELST, version, 0);
+        writer.writeInt(selection.mEmptyDuration > 0 ? 2 : 1);
+
+        if (selection.mEmptyDuration > 0) {
+            writeTime(writer, selection.mEmptyDuration, version);
+            writeTime(writer, -1, version);
+            writer.writeInt(FIXED_POINT_ONE);
+        }
+
+        writeTime(writer, selection.mSegmentDuration, version);
+        writeTime(writer, selection.mMediaTime, version);
+        writer.writeInt(FIXED_POINT_ONE);
+        writer.endBox();
+        writer.endBox();
+
+        writer.startBox(Mp4Parser.TYPE_MDIA);
+
+        version = version(selection.mMediaDuration);
+
+        writer.startFullBox(Mp4Parser.TYPE_MDHD, version, 0);
+        writeTime(writer, 0, version);
+        writeTime(writer, 0, version);
+        writer.writeInt((int) track.mTimescale);
+        writeTime(writer, selection.mMediaDuration, version);
+        writer.writeShort(track.mLanguage);
+        writer.writeShort(0);
+        writer.endBox();
+
+        if (track.mHandlerBox != null) {
+            writer.writeBytes(track.mHandlerBox);
+        }
+
+        writer.startBox(Mp4Parser.TYPE_MINF);
+
+        for (byte[] box : track.mMediaInformationBoxes) {
+            writer.writeBytes(box);
+        }
+
+        writer.startBox(Mp4Parser.TYPE_STBL);
+        writer.writeBytes(track.mSampleDescriptionBox);
+        writeTimes(writer, selection);
+        writeCompositionOffsets(writer, selection);
+        writeSyncSamples(writer, selection);
+        writeChunks(writer, selection);
+        writeSizes(writer, selection);
+        writeChunkOffsets(writer, selection, dataStart, isLargeOffsets);
+        writer.endBox();
+
+        writer.endBox();
+        writer.endBox();
+        writer.endBox();
+    }
+
+    private static void writeTimes(Mp4BoxWriter writer, Selection selection) {
+        int[] durations = selection.mTrack.mDurations;
+        Mp4BoxWriter entries = new Mp4BoxWriter();
+        int entryCount = 0;
+        int runStart = selection.mFirst;
+
+        for (int sample = selection.mFirst + 1; sample <= selection.mEnd; sample++) {
+            if (sample == selection.mEnd || durations[sample] != durations[runStart]) {
+                entries.writeInt(sample - runStart);
+                entries.writeInt(durations[runStart]);
+                entryCount++;
+                runStart = sample;
+            }
+        }
+
+        writer.startFullBox(Mp4Parser.TYPE_STTS, 0, 0);
+        writer.writeInt(entryCount);
+        writer.writeBytes(entries.toByteArray());
+        writer.endBox();
+    }
+
+    private static void writeCompositionOffsets(Mp4BoxWriter writer, Selection selection) {
+        int[] offsets = selection.mTrack.mCompositionOffsets;
+
+        if (offsets == null) {
+            return;
+        }
+
+        Mp4BoxWriter entries = new Mp4BoxWriter();
+        int entryCount = 0;
+        int runStart = selection.mFirst;
+        boolean hasNegative = false;
+
+        for (int sample = selection.mFirst + 1; sample <= selection.mEnd; sample++) {
+            if (sample == selection.mEnd || offsets[sample] != offsets[runStart]) {
+                entries.writeInt(sample - runStart);
+                entries.writeInt(offsets[runStart]);
+                entryCount++;
+                hasNegative |= offsets[runStart] < 0;
+                runStart = sample;
+            }
+        }
+
+        writer.startFullBox(Mp4Parser.TYPE_CTTS, hasNegative ? 1 : 0, 0);
+        writer.writeInt(entryCount);
+        writer.writeBytes(entries.toByteArray());
+        writer.endBox();
+    }
+
+    private static void writeSyncSamples(Mp4BoxWriter writer, Selection selection) {
+        int[] syncSamples = selection.mTrack.mSyncSamples;
+
+        if (syncSamples == null) {
+            return;
+        }
+
+        Mp4BoxWriter entries = new Mp4BoxWriter();
+        int entryCount = 0;
+
+        for (int sample : syncSamples) {
+            if (sample >= selection.mFirst && sample < selection.mEnd) {
+                entries.writeInt(sample - selection.mFirst + 1);
+                entryCount++;
+            }
+        }
+
+        writer.startFullBox(Mp4Parser.TYPE_STSS, 0, 0);
+        writer.writeInt(entryCount);
+        writer.writeBytes(entries.toByteArray());
+        writer.endBox();
+    }
+
+    private static void writeChunks(Mp4BoxWriter writer, Selection selection) {
+        Mp4BoxWriter entries = new Mp4BoxWriter();
+        int entryCount = 0;
+        int previousSize = -1;
+        int previousDescriptionIndex = -1;
+
+        for (int i = 0; i < selection.mChunks.size(); i++) {
+            Chunk chunk = selection.mChunks.get(i);
+            int size = chunk.mEnd - chunk.mFirst;
+            int descriptionIndex = selection.mTrack.mDescriptionIndices[chunk.mFirst];
+
+            if (size != previousSize || descriptionIndex != previousDescriptionIndex) {
+                entries.writeInt(i + 1);
+                entries.writeInt(size);
+                entries.writeInt(descriptionIndex);
+                entryCount++;
+
+                previousSize = size;
+                previousDescriptionIndex = descriptionIndex;
+            }
+        }
+
+        writer.startFullBox(Mp4Parser.TYPE_STSC, 0, 0);
+        writer.writeInt(entryCount);
+        writer.writeBytes(entries.toByteArray());
+        writer.endBox();
+    }
+
+    private static void writeSizes(Mp4BoxWriter writer, Selection selection) {
+        int[] sizes = selection.mTrack.mSizes;
+        boolean isConstant = true;
+
+        for (int sample = selection.mFirst + 1; sample < selection.mEnd && isConstant; sample++) {
+            isConstant = sizes[sample] == sizes[selection.mFirst];
+        }
+
+        writer.startFullBox(Mp4Parser.TYPE_STSZ, 0, 0);
+        writer.writeInt(isConstant ? sizes[selection.mFirst] : 0);
+        writer.writeInt(selection.mEnd - selection.mFirst);
+
+        if (!isConstant) {
+            for (int sample = selection.mFirst; sample < selection.mEnd; sample++) {
+                writer.writeInt(sizes[sample]);
+            }
+        }
+
+        writer.endBox();
+    }
+
+    private static void writeChunkOffsets(Mp4BoxWriter writer, Selection selection, long dataStart, boolean isLarge) {
+        writer.startFullBox(isLarge ? Mp4Parser.TYPE_CO64 : Mp4Parser.TYPE_STCO, 0, 0);
+        writer.writeInt(selection.mChunks.size());
+
+        for (Chunk chunk : selection.mChunks) {
+            long offset = dataStart + chunk.mOutputOffset;
+
+            if (isLarge) {
+                writer.writeLong(offset);
+            } else {
+                writer.writeInt((int) offset);
+            }
+        }
+
+        writer.endBox();
+    }
+
+    /**
+     * Samples of a track from {@code mFirst} until {@code mEnd} in decode order,
+     * with edit that presents them from trimmed movie start
+     */
+    private static class Selection {
+        final Mp4Track mTrack;
+        final int mFirst;
+        final int mEnd;
+        final List<Chunk> mChunks = new ArrayList<>();
+
+        long mMediaTime;
+        long mMediaDuration;
+
+        //in movie timescale
+        long mEmptyDuration;
+        long mSegmentDuration;
+
+        Selection(Mp4Track track, int first, int end) {
+            mTrack = track;
+            mFirst = first;
+            mEnd = end;
+        }
+
+        long duration() {
+            return mEmptyDuration + mSegmentDuration;
+        }
+    }
+
+    /**
+     * Samples of one track that are written to trimmed file next to each other
+     */
+    private static class Chunk {
+        final Selection mSelection;
+        final int mFirst;
+        final int mEnd;
+        final long mStartUs;
+
+        //relative to the start of mdat payload
+        long mOutputOffset;
+
+        Chunk(Selection selection, int first, int end, long startUs) {
+            mSelection = selection;
+            mFirst = first;
+            mEnd = end;
+            mStartUs = startUs;
+        }
+
+        long size() {
+            long size = 0;
+
+            for (int sample = mFirst; sample < mEnd; sample++) {
+                size += mSelection.mTrack.mSizes[sample];
+            }
+
+            return size;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps {@link PeakPyramid} of recently opened sources in memory and level 0 of every source
+ * on disk, keyed by {@link VideoSource#identity()}, so audio of a source is decoded only once.
+ * Sources without identity are kept in memory only while loaded.
+ */
+class PeakCache {
+    private static final String TAG = "PeakCache";
+
+    private static final String DIRECTORY_NAME = "peaks";
+    private static final String FILE_EXTENSION = ".peaks";
+    private static final int FILE_VERSION = 2;
+
+    private static final int MEMORY_CACHE_SIZE = 4;
+
+    //peaks are small and outlive trimmers, so reopened source isn't read from disk again
+    private static final LruCache<String, PeakPyramid> sMemoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
+
+    private PeakCache() {
+    }
+
+    /**
+     * Must not be called on main thread
+     *
+     * @return peaks of audio track of {@code source}, or null if it has no audio
+     */
+    static PeakPyramid load(File cacheDir, VideoSource source) throws IOException {
+        String identity = source.identity();
+
+        if (identity == null) {
+            return AudioPeakDecoder.decode(source);
+        }
+
+        PeakPyramid peaks = sMemoryCache.get(identity);
+
+        if (peaks != null) {
+            return peaks;
+        }
+
+        File file = new File(new File(cacheDir, DIRECTORY_NAME), fileName(identity));
+        peaks = read(file);
+
+        if (peaks == null) {
+            peaks = AudioPeakDecoder.decode(source);
+
+            if (peaks == null) {
+                return null;
+            }
+
+            write(file, peaks);
+        }
+
+        sMemoryCache.put(identity, peaks);
+        return peaks;
+    }
+
+    private static String fileName(String sourceIdentity) {
+        long hash = 1125899906842597L;
+
+        for (int i = 0; i < sourceIdentity.length(); i++) {
+            hash = 31 * hash + sourceIdentity.charAt(i);
+        }
+
+        return Long.toHexString(hash) + FILE_EXTENSION;
+    }
+
+    private static PeakPyramid read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream input = null;
+
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (input.readInt() != FILE_VERSION || input.readInt() != PeakPyramid.BASE_SIZE) {
+                return null;
+            }
+
+            long durationUs = input.readLong();
+            byte[] mins = new byte[PeakPyramid.BASE_SIZE];
+            byte[] maxs = new byte[PeakPyramid.BASE_SIZE];
+
+            input.readFully(mins);
+            input.readFully(maxs);
+
+            return new PeakPyramid(mins, maxs, durationUs);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read peaks", e);
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    private static void write(File file, PeakPyramid peaks) {
+        File directory = file.getParentFile();
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        DataOutputStream output = null;
+
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+            output.writeInt(FILE_VERSION);
+            output.writeInt(PeakPyramid.BASE_SIZE);
+            output.writeLong(peaks.durationUs());
+            output.write(peaks.baseMins());
+            output.write(peaks.baseMaxs());
+            output.close();
+            output = null;
+
+            //partially written file is never read
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write peaks", e);
+            tempFile.delete();
+        } finally {
+            closeQuietly(output);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import java.util.Arrays;
+
+/**
+ * Min/max peaks of audio track at power-of-two resolutions. Level 0 holds {@link #BASE_SIZE}
+ * buckets evenly covering all decoded audio, every next level merges pairs of buckets of previous one.
+ * Peaks are stored as signed bytes, so all levels together take under 64KB regardless of duration.
+ */
+class PeakPyramid {
+    static final int BASE_SIZE = 1 << 14;
+
+    private final byte[][] mMins;
+    private final byte[][] mMaxs;
+    private final long mDurationUs;
+
+    /**
+     * @param baseMins minimums of level 0, {@link #BASE_SIZE} of them
+     * @param baseMaxs maximums of level 0, {@link #BASE_SIZE} of them
+     * @param durationUs duration of audio that level 0 covers, 0 if unknown
+     */
+    PeakPyramid(byte[] baseMins, byte[] baseMaxs, long durationUs) {
+        if (baseMins.length != BASE_SIZE || baseMaxs.length != BASE_SIZE) {
+            throw new IllegalArgumentException("level 0 must have " + BASE_SIZE + " buckets");
+        }
+
+        int levelCount = Integer.numberOfTrailingZeros(BASE_SIZE) + 1;
+
+        mMins = new byte[levelCount][];
+        mMaxs = new byte[levelCount][];
+
+        mDurationUs = durationUs;
+
+        mMins[0] = baseMins;
+        mMaxs[0] = baseMaxs;
+
+        for (int level = 1; level < levelCount; level++) {
+            byte[] previousMins = mMins[level - 1];
+            byte[] previousMaxs = mMaxs[level - 1];
+
+            byte[] mins = new byte[previousMins.length / 2];
+            byte[] maxs = new byte[previousMaxs.length / 2];
+
+            for (int i = 0; i < mins.length; i++) {
+                mins[i] = (byte) Math.min(previousMins[2 * i], previousMins[2 * i + 1]);
+                maxs[i] = (byte) Math.max(previousMaxs[2 * i], previousMaxs[2 * i + 1]);
+            }
+
+            mMins[level] = mins;
+            mMaxs[level] = maxs;
+        }
+    }
+
+    /**
+     * @return duration of audio that level 0 covers, audio track may end before or after video, 0 if unknown
+     */
+    long durationUs() {
+        return mDurationUs;
+    }
+
+    int levelCount() {
+        return mMins.length;
+    }
+
+    int size(int level) {
+        return mMins[level].length;
+    }
+
+    /**
+     * @return coarsest level that still has at least {@code columnsCount} buckets,
+     * or level 0 if none has that many
+     */
+    int levelFor(float columnsCount) {
+        int level = 0;
+
+        while (level + 1 < mMins.length && mMins[level + 1].length >= columnsCount) {
+            level++;
+        }
+
+        return level;
+    }
+
+    byte min(int level, int index) {
+        return mMins[level][index];
+    }
+
+    byte max(int level, int index) {
+        return mMaxs[level][index];
+    }
+
+    byte[] baseMins() {
+        return mMins[0];
+    }
+
+    byte[] baseMaxs() {
+        return mMaxs[0];
+    }
+
+    /**
+     * Reduces stream of 16 bit PCM frames to level 0 buckets, without keeping the frames
+     */
+    static class Builder {
+        private final byte[] mMins = new byte[BASE_SIZE];
+        private final byte[] mMaxs = new byte[BASE_SIZE];
+        private long mFramesPerBucket;
+
+        private long mFrameIndex;
+
+        /**
+         * @param expectedFramesCount frames of whole track, or 0 if unknown. Buckets are merged in pairs
+         *                            whenever track turns out longer, so it's only a hint.
+         */
+        Builder(long expectedFramesCount) {
+            mFramesPerBucket = Math.max(1, (expectedFramesCount + BASE_SIZE - 1) / BASE_SIZE);
+
+            Arrays.fill(mMins, Byte.MAX_VALUE);
+            Arrays.fill(mMaxs, Byte.MIN_VALUE);
+        }
+
+        /**
+         * @param min smallest sample of frame across channels
+         * @param max largest sample of frame across channels
+         */
+        void addFrame(short min, short max) {
+            if (mFrameIndex == BASE_SIZE * mFramesPerBucket) {
+                mergeBuckets();
+            }
+
+            int bucket = (int) (mFrameIndex / mFramesPerBucket);
+
+            byte minPeak = (byte) (min >> 8);
+            byte maxPeak = (byte) (max >> 8);
+
+            if (minPeak < mMins[bucket]) {
+                mMins[bucket] = minPeak;
+            }
+
+            if (maxPeak > mMaxs[bucket]) {
+                mMaxs[bucket] = maxPeak;
+            }
+
+            mFrameIndex++;
+        }
+
+        /**
+         * Halves resolution of filled buckets, freeing the second half of them
+         */
+        private void mergeBuckets() {
+            for (int i = 0; i < BASE_SIZE / 2; i++) {
+                mMins[i] = (byte) Math.min(mMins[2 * i], mMins[2 * i + 1]);
+                mMaxs[i] = (byte) Math.max(mMaxs[2 * i], mMaxs[2 * i + 1]);
+            }
+
+            Arrays.fill(mMins, BASE_SIZE / 2, BASE_SIZE, Byte.MAX_VALUE);
+            Arrays.fill(mMaxs, BASE_SIZE / 2, BASE_SIZE, Byte.MIN_VALUE);
+
+            mFramesPerBucket *= 2;
+        }
+
+        /**
+         * @param sampleRate frames per second of added frames
+         * @return peaks that evenly cover all added frames
+         */
+        PeakPyramid build(int sampleRate) {
+            int filledCount = (int) ((mFrameIndex + mFramesPerBucket - 1) / mFramesPerBucket);
+            byte[] mins = new byte[BASE_SIZE];
+            byte[] maxs = new byte[BASE_SIZE];
+
+            //filled buckets of shorter than expected track are stretched over the whole level
+            for (int i = 0; filledCount > 0 && i < BASE_SIZE; i++) {
+                int first = (int) ((long) i * filledCount / BASE_SIZE);
+                int last = (int) (((long) (i + 1) * filledCount + BASE_SIZE - 1) / BASE_SIZE);
+
+                byte min = Byte.MAX_VALUE;
+                byte max = Byte.MIN_VALUE;
+
+                for (int bucket = first; bucket < last; bucket++) {
+                    min = (byte) Math.min(min, mMins[bucket]);
+                    max = (byte) Math.max(max, mMaxs[bucket]);
+                }
+
+                mins[i] = min;
+                maxs[i] = max;
+            }
+
+            long durationUs = sampleRate > 0 ? mFrameIndex * 1_000_000 / sampleRate : 0;
+
+            return new PeakPyramid(mins, maxs, durationUs);
+        }
+    }
+}
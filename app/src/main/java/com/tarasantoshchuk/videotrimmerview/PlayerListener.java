@@ -1,6 +1,14 @@
-package com.tarasantoshchuk.videotrimmerview;
-
-public interface PlayerListener {
-    void onPause();
-    void onPositionChange(float currentPosition);
-}
+package com.tarasantoshchuk.videotrimmerview;
+
+/**
+ * Playback state reported by player, may be called from any thread
+ */
+public interface PlayerListener {
+    void onPause();
+    void onPositionChange(float currentPosition);
+
+    /**
+     * @param rate playback speed, 1 for normal playback
+     */
+    void onPlaybackRateChange(float rate);
+}
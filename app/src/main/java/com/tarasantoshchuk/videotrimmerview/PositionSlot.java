@@ -0,0 +1,99 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest playback position reported by player. Written from any thread without locks or
+ * allocations, read as a consistent snapshot through sequence counter that is odd while
+ * a write is in progress. Position is extrapolated from time of the report with playback rate.
+ */
+class PositionSlot {
+    //player that stalls without pausing must not move playhead away indefinitely
+    private static final long MAX_EXTRAPOLATION_NS = 1_000_000_000;
+
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private volatile boolean mIsShown;
+    private volatile boolean mIsPlaying;
+    private volatile float mPositionMs;
+    private volatile long mReportTimeNs;
+    private volatile float mRate = 1;
+
+    void writePosition(float positionMs) {
+        long sequence = beginWrite();
+
+        mPositionMs = positionMs;
+        mReportTimeNs = System.nanoTime();
+        mIsPlaying = true;
+        mIsShown = true;
+
+        mSequence.set(sequence + 2);
+    }
+
+    void writePaused() {
+        long sequence = beginWrite();
+
+        mIsPlaying = false;
+        mIsShown = false;
+
+        mSequence.set(sequence + 2);
+    }
+
+    void writeRate(float rate) {
+        long sequence = beginWrite();
+
+        //position reached at previous rate is kept
+        long timeNs = System.nanoTime();
+        mPositionMs = extrapolate(mIsPlaying, mPositionMs, mReportTimeNs, mRate, timeNs);
+        mReportTimeNs = timeNs;
+        mRate = rate;
+
+        mSequence.set(sequence + 2);
+    }
+
+    /**
+     * @param timeNs time in {@link System#nanoTime()} base, e.g. frame time of choreographer
+     * @return position at {@code timeNs}, or {@link Float#NaN} if position isn't shown
+     */
+    float positionAt(long timeNs) {
+        while (true) {
+            long sequence = mSequence.get();
+
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+
+            boolean isShown = mIsShown;
+            boolean isPlaying = mIsPlaying;
+            float positionMs = mPositionMs;
+            long reportTimeNs = mReportTimeNs;
+            float rate = mRate;
+
+            if (mSequence.get() != sequence) {
+                continue;
+            }
+
+            return isShown ? extrapolate(isPlaying, positionMs, reportTimeNs, rate, timeNs) : Float.NaN;
+        }
+    }
+
+    private long beginWrite() {
+        while (true) {
+            long sequence = mSequence.get();
+
+            if ((sequence & 1) == 0 && mSequence.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    private static float extrapolate(boolean isPlaying, float positionMs, long reportTimeNs, float rate, long timeNs) {
+        if (!isPlaying) {
+            return positionMs;
+        }
+
+        long elapsedNs = Math.max(0, Math.min(MAX_EXTRAPOLATION_NS, timeNs - reportTimeNs));
+        return positionMs + elapsedNs / 1_000_000f * rate;
+    }
+}
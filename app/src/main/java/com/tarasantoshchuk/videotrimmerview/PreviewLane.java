@@ -0,0 +1,135 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.os.SystemClock;
+
+import rx.Scheduler;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action0;
+
+/**
+ * Decodes preview frames one at a time on its own thread. Request that is still waiting when
+ * a newer one arrives is dropped, so decoding never falls behind fast drags, while the newest
+ * request is always decoded.
+ */
+class PreviewLane {
+    private final MetadataRetrieverPool mRetrieverPool;
+    private final BitmapPool mBitmapPool = new BitmapPool();
+    private final Scheduler.Worker mWorker;
+    private final Scheduler.Worker mMainWorker = AndroidSchedulers.mainThread().createWorker();
+
+    private final Action0 mDecodeAction = new Action0() {
+        @Override
+        public void call() {
+            decodeLatest();
+        }
+    };
+
+    //latest request, guarded by this
+    private boolean mIsPending;
+    private long mPendingTimeUs;
+    private int mPendingWidth;
+    private int mPendingHeight;
+    private boolean mIsPendingExact;
+    private long mPendingRequestTimeMs;
+    private Listener mPendingListener;
+
+    PreviewLane(VideoSource source) {
+        mRetrieverPool = new MetadataRetrieverPool(source, 1, Thread.NORM_PRIORITY);
+        mWorker = mRetrieverPool.scheduler().createWorker();
+    }
+
+    /**
+     * @param isExact true to decode exact frame, otherwise closest keyframe is decoded, which is faster
+     */
+    void request(long timeUs, int width, int height, boolean isExact, Listener listener) {
+        synchronized (this) {
+            mPendingTimeUs = timeUs;
+            mPendingWidth = width;
+            mPendingHeight = height;
+            mIsPendingExact = isExact;
+            mPendingRequestTimeMs = SystemClock.uptimeMillis();
+            mPendingListener = listener;
+
+            if (mIsPending) {
+                //scheduled decode picks up this request instead
+                return;
+            }
+
+            mIsPending = true;
+        }
+
+        mWorker.schedule(mDecodeAction);
+    }
+
+    /**
+     * Gives back bitmap delivered to {@link Listener} once it is no longer shown
+     */
+    void recycle(Bitmap bitmap) {
+        mBitmapPool.onEvicted(bitmap);
+    }
+
+    void release() {
+        mWorker.unsubscribe();
+        mMainWorker.unsubscribe();
+        mRetrieverPool.shutdown();
+        mBitmapPool.clear();
+    }
+
+    private void decodeLatest() {
+        final long timeUs;
+        final int width;
+        final int height;
+        final boolean isExact;
+        final long requestTimeMs;
+        final Listener listener;
+
+        synchronized (this) {
+            mIsPending = false;
+
+            timeUs = mPendingTimeUs;
+            width = mPendingWidth;
+            height = mPendingHeight;
+            isExact = mIsPendingExact;
+            requestTimeMs = mPendingRequestTimeMs;
+            listener = mPendingListener;
+            mPendingListener = null;
+        }
+
+        final Bitmap frame;
+
+        try {
+            MediaMetadataRetriever retriever = mRetrieverPool.acquire();
+
+            try {
+                int option = isExact ? MediaMetadataRetriever.OPTION_CLOSEST : MediaMetadataRetriever.OPTION_CLOSEST_SYNC;
+                frame = FrameGrabber.grab(retriever, mBitmapPool, timeUs, option, width, height);
+            } finally {
+                mRetrieverPool.release(retriever);
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        if (frame == null) {
+            return;
+        }
+
+        mMainWorker.schedule(new Action0() {
+            @Override
+            public void call() {
+                listener.onPreviewDecoded(frame, isExact, requestTimeMs);
+            }
+        });
+    }
+
+    interface Listener {
+        /**
+         * Called on main thread
+         *
+         * @param requestTimeMs {@link SystemClock#uptimeMillis()} when preview was requested
+         */
+        void onPreviewDecoded(Bitmap bitmap, boolean isExact, long requestTimeMs);
+    }
+}
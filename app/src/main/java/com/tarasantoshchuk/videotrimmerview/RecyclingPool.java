@@ -0,0 +1,125 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Pool of same-sized buffers shared by thumbnail cache and views showing thumbnails.
+ * Buffer becomes reusable once it is both evicted from cache and not shown by any view,
+ * {@link #obtain(int, int)} returns such buffer instead of allocating new one.
+ * Methods lock the pool itself, so a cache lookup done under the same lock is atomic with {@link #onShown(Object)}.
+ *
+ * @param <T> type of pooled buffer
+ */
+abstract class RecyclingPool<T> {
+    private final int mMaxFreePerSize;
+
+    private final HashMap<Long, ArrayDeque<T>> mFree = new HashMap<>();
+    private final IdentityHashMap<T, Integer> mShowCounts = new IdentityHashMap<>();
+    private final IdentityHashMap<T, Boolean> mEvicted = new IdentityHashMap<>();
+
+    private int mAllocationCount;
+
+    RecyclingPool(int maxFreePerSize) {
+        mMaxFreePerSize = maxFreePerSize;
+    }
+
+    protected abstract T allocate(int width, int height);
+
+    protected abstract int widthOf(T buffer);
+
+    protected abstract int heightOf(T buffer);
+
+    /**
+     * @return false if buffer can't be reused, e.g. it is immutable
+     */
+    protected boolean isReusable(T buffer) {
+        return true;
+    }
+
+    synchronized T obtain(int width, int height) {
+        ArrayDeque<T> free = mFree.get(sizeKey(width, height));
+        T buffer = free != null ? free.poll() : null;
+
+        if (buffer != null) {
+            return buffer;
+        }
+
+        mAllocationCount++;
+        return allocate(width, height);
+    }
+
+    synchronized void onShown(T buffer) {
+        Integer showCount = mShowCounts.get(buffer);
+        mShowCounts.put(buffer, showCount == null ? 1 : showCount + 1);
+
+        ArrayDeque<T> free = mFree.get(sizeKey(buffer));
+
+        if (free != null) {
+            //buffer was evicted while being delivered to the view
+            free.remove(buffer);
+        }
+    }
+
+    synchronized void onHidden(T buffer) {
+        Integer showCount = mShowCounts.get(buffer);
+
+        if (showCount == null) {
+            return;
+        }
+
+        if (showCount > 1) {
+            mShowCounts.put(buffer, showCount - 1);
+            return;
+        }
+
+        mShowCounts.remove(buffer);
+
+        if (mEvicted.remove(buffer) != null) {
+            recycle(buffer);
+        }
+    }
+
+    synchronized void onEvicted(T buffer) {
+        if (mShowCounts.containsKey(buffer)) {
+            mEvicted.put(buffer, Boolean.TRUE);
+        } else {
+            recycle(buffer);
+        }
+    }
+
+    synchronized int getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    synchronized void clear() {
+        mFree.clear();
+    }
+
+    private void recycle(T buffer) {
+        if (!isReusable(buffer)) {
+            return;
+        }
+
+        long sizeKey = sizeKey(buffer);
+        ArrayDeque<T> free = mFree.get(sizeKey);
+
+        if (free == null) {
+            free = new ArrayDeque<>(mMaxFreePerSize);
+            mFree.put(sizeKey, free);
+        }
+
+        if (free.size() < mMaxFreePerSize) {
+            free.offer(buffer);
+        }
+    }
+
+    private long sizeKey(T buffer) {
+        return sizeKey(widthOf(buffer), heightOf(buffer));
+    }
+
+    private static long sizeKey(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+}
@@ -0,0 +1,239 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.annotation.TargetApi;
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.functions.Func1;
+
+/**
+ * Finds scene cuts by comparing luma histograms of consecutive decoded frames, sampled
+ * on a coarse grid, so only a few hundred pixels of every frame are read. Video is split
+ * into chunks that are decoded by a few decoders at a time, each chunk starts decoding from keyframe before it,
+ * so its first frame is compared with the frame before it as well.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class SceneDetector {
+    private static final String TAG = "SceneDetector";
+
+    //hardware decoders are shared with thumbnail and preview decoding
+    private static final int MAX_CONCURRENT_CHUNKS = 2;
+
+    private static final long DEQUEUE_TIMEOUT_US = 10_000;
+
+    private static final int GRID_WIDTH = 32;
+    private static final int GRID_HEIGHT = 18;
+    private static final int HISTOGRAM_BINS = 32;
+
+    //share of sampled pixels that must change their histogram bin
+    private static final float CUT_THRESHOLD = 0.4f;
+
+    private SceneDetector() {
+    }
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * @return observable emitting cut timestamps as soon as they are found, not in order.
+     * Chunk that fails to decode is skipped, so cuts of other chunks are still found.
+     */
+    static Observable<Long> detect(VideoSource source, long durationUs, int chunksCount, Scheduler scheduler) {
+        List<Observable<Long>> chunks = new ArrayList<>(chunksCount);
+
+        for (int i = 0; i < chunksCount; i++) {
+            long startUs = durationUs * i / chunksCount;
+            long endUs = i == chunksCount - 1 ? Long.MAX_VALUE : durationUs * (i + 1) / chunksCount;
+
+            chunks.add(Observable.create(new ChunkOnSubscribe(source, startUs, endUs))
+                    .subscribeOn(scheduler)
+                    .onErrorResumeNext(new SkipChunk(startUs)));
+        }
+
+        return Observable.merge(Observable.from(chunks), MAX_CONCURRENT_CHUNKS);
+    }
+
+    private static class SkipChunk implements Func1<Throwable, Observable<Long>> {
+        private final long mStartUs;
+
+        SkipChunk(long startUs) {
+            mStartUs = startUs;
+        }
+
+        @Override
+        public Observable<Long> call(Throwable throwable) {
+            Log.w(TAG, "failed to detect scenes of chunk at " + mStartUs + "us", throwable);
+            return Observable.<Long>empty();
+        }
+    }
+
+    private static class ChunkOnSubscribe implements Observable.OnSubscribe<Long> {
+        private final VideoSource mSource;
+        private final long mStartUs;
+        private final long mEndUs;
+
+        ChunkOnSubscribe(VideoSource source, long startUs, long endUs) {
+            mSource = source;
+            mStartUs = startUs;
+            mEndUs = endUs;
+        }
+
+        @Override
+        public void call(Subscriber<? super Long> subscriber) {
+            try {
+                scan(subscriber);
+                subscriber.onCompleted();
+            } catch (IOException | IllegalStateException e) {
+                subscriber.onError(e);
+            }
+        }
+
+        private void scan(Subscriber<? super Long> subscriber) throws IOException {
+            MediaExtractor extractor = new MediaExtractor();
+            MediaCodec decoder = null;
+
+            try {
+                mSource.setDataSource(extractor);
+
+                MediaFormat format = SequentialFrameGenerator.selectVideoTrack(extractor);
+
+                decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+                format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+                decoder.configure(format, null, null, 0);
+                decoder.start();
+
+                extractor.seekTo(mStartUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+                MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+                int[] histogram = new int[HISTOGRAM_BINS];
+                int[] previousHistogram = new int[HISTOGRAM_BINS];
+                boolean hasPrevious = false;
+                boolean isInputDone = false;
+
+                while (!subscriber.isUnsubscribed()) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException();
+                    }
+
+                    if (!isInputDone) {
+                        isInputDone = queueSample(extractor, decoder, mEndUs);
+                    }
+
+                    int outputIndex = decoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+
+                    if (outputIndex < 0) {
+                        continue;
+                    }
+
+                    long ptsUs = info.presentationTimeUs;
+
+                    if (info.size > 0 && ptsUs < mEndUs) {
+                        Image image = decoder.getOutputImage(outputIndex);
+
+                        if (image == null) {
+                            throw new IllegalStateException("decoder output can't be accessed as image");
+                        }
+
+                        lumaHistogram(image, histogram);
+                        image.close();
+
+                        if (hasPrevious && ptsUs >= mStartUs && difference(previousHistogram, histogram) > CUT_THRESHOLD) {
+                            subscriber.onNext(ptsUs);
+                        }
+
+                        int[] swap = previousHistogram;
+                        previousHistogram = histogram;
+                        histogram = swap;
+                        hasPrevious = true;
+                    }
+
+                    decoder.releaseOutputBuffer(outputIndex, false);
+
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        break;
+                    }
+                }
+            } finally {
+                if (decoder != null) {
+                    decoder.release();
+                }
+
+                extractor.release();
+            }
+        }
+    }
+
+    /**
+     * @return true if end of stream was queued, which happens at the end of chunk as well
+     */
+    private static boolean queueSample(MediaExtractor extractor, MediaCodec decoder, long endUs) {
+        int inputIndex = decoder.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+
+        if (inputIndex < 0) {
+            return false;
+        }
+
+        int sampleSize = extractor.readSampleData(decoder.getInputBuffer(inputIndex), 0);
+
+        if (sampleSize < 0 || extractor.getSampleTime() >= endUs) {
+            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return true;
+        }
+
+        decoder.queueInputBuffer(inputIndex, 0, sampleSize, extractor.getSampleTime(), 0);
+        extractor.advance();
+        return false;
+    }
+
+    private static void lumaHistogram(Image image, int[] histogram) {
+        Rect crop = image.getCropRect();
+        Image.Plane plane = image.getPlanes()[0];
+        ByteBuffer buffer = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+
+        for (int i = 0; i < HISTOGRAM_BINS; i++) {
+            histogram[i] = 0;
+        }
+
+        for (int gridY = 0; gridY < GRID_HEIGHT; gridY++) {
+            int y = crop.top + (2 * gridY + 1) * crop.height() / (2 * GRID_HEIGHT);
+
+            for (int gridX = 0; gridX < GRID_WIDTH; gridX++) {
+                int x = crop.left + (2 * gridX + 1) * crop.width() / (2 * GRID_WIDTH);
+                int luma = buffer.get(y * rowStride + x * pixelStride) & 0xff;
+
+                histogram[luma * HISTOGRAM_BINS / 256]++;
+            }
+        }
+    }
+
+    /**
+     * @return 0 for equal histograms, 1 if no sample falls into the same bin
+     */
+    private static float difference(int[] histogram, int[] otherHistogram) {
+        int difference = 0;
+
+        for (int i = 0; i < histogram.length; i++) {
+            difference += Math.abs(histogram[i] - otherHistogram[i]);
+        }
+
+        return difference / (2f * GRID_WIDTH * GRID_HEIGHT);
+    }
+}
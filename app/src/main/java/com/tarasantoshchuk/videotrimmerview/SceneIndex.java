@@ -0,0 +1,86 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import java.util.Arrays;
+
+/**
+ * Sorted timestamps of detected scene cuts. Immutable, so it can be replaced while being read,
+ * every added cut produces new index.
+ */
+class SceneIndex {
+    static final SceneIndex EMPTY = new SceneIndex(new long[0]);
+
+    static final long NO_CUT = -1;
+
+    private final long[] mCutsUs;
+
+    private SceneIndex(long[] cutsUs) {
+        mCutsUs = cutsUs;
+    }
+
+    SceneIndex withCut(long cutUs) {
+        int index = Arrays.binarySearch(mCutsUs, cutUs);
+
+        if (index >= 0) {
+            return this;
+        }
+
+        int insertionPoint = -index - 1;
+        long[] cutsUs = new long[mCutsUs.length + 1];
+
+        System.arraycopy(mCutsUs, 0, cutsUs, 0, insertionPoint);
+        cutsUs[insertionPoint] = cutUs;
+        System.arraycopy(mCutsUs, insertionPoint, cutsUs, insertionPoint + 1, mCutsUs.length - insertionPoint);
+
+        return new SceneIndex(cutsUs);
+    }
+
+    int size() {
+        return mCutsUs.length;
+    }
+
+    /**
+     * @return cut closest to {@code timeUs} that is at most {@code maxDistanceUs} away, or {@link #NO_CUT}
+     */
+    long nearestCutUs(long timeUs, long maxDistanceUs) {
+        int index = Arrays.binarySearch(mCutsUs, timeUs);
+
+        if (index >= 0) {
+            return timeUs;
+        }
+
+        int next = -index - 1;
+        long nearestUs = NO_CUT;
+        long nearestDistanceUs = maxDistanceUs;
+
+        if (next < mCutsUs.length && mCutsUs[next] - timeUs <= nearestDistanceUs) {
+            nearestUs = mCutsUs[next];
+            nearestDistanceUs = mCutsUs[next] - timeUs;
+        }
+
+        if (next > 0 && timeUs - mCutsUs[next - 1] <= nearestDistanceUs) {
+            nearestUs = mCutsUs[next - 1];
+        }
+
+        return nearestUs;
+    }
+
+    /**
+     * @return time of frame that represents span starting at {@code startUs}: if a scene starts
+     * within the span, middle of its part of the span, so that new scene is shown, otherwise {@code startUs}
+     */
+    long representativeTimeUs(long startUs, long spanUs) {
+        int index = Arrays.binarySearch(mCutsUs, startUs + 1);
+        int next = index >= 0 ? index : -index - 1;
+
+        long endUs = startUs + spanUs;
+
+        if (next >= mCutsUs.length || mCutsUs[next] >= endUs) {
+            return startUs;
+        }
+
+        long sceneStartUs = mCutsUs[next];
+        long sceneEndUs = next + 1 < mCutsUs.length ? Math.min(endUs, mCutsUs[next + 1]) : endUs;
+
+        return sceneStartUs + (sceneEndUs - sceneStartUs) / 2;
+    }
+}
@@ -0,0 +1,65 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.PopupWindow;
+
+/**
+ * Enlarged frame shown above dragged trim handle
+ */
+class ScrubPreview {
+    private final ImageView mImageView;
+    private final PopupWindow mPopup;
+
+    private Bitmap mBitmap;
+
+    ScrubPreview(Context context) {
+        mImageView = new ImageView(context);
+        mImageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
+
+        mPopup = new PopupWindow(mImageView);
+        mPopup.setTouchable(false);
+    }
+
+    /**
+     * Shows preview centered above {@code x} of {@code anchor}, or moves it there if already shown
+     */
+    void show(View anchor, float x, int width, int height) {
+        int xOffset = Math.round(x) - width / 2;
+        int yOffset = -anchor.getHeight() - height;
+
+        if (mPopup.isShowing()) {
+            mPopup.update(anchor, xOffset, yOffset, width, height);
+        } else {
+            mPopup.setWidth(width);
+            mPopup.setHeight(height);
+            mPopup.showAsDropDown(anchor, xOffset, yOffset);
+        }
+    }
+
+    boolean isShowing() {
+        return mPopup.isShowing();
+    }
+
+    /**
+     * @return previously shown bitmap
+     */
+    Bitmap setBitmap(Bitmap bitmap) {
+        Bitmap previousBitmap = mBitmap;
+
+        mBitmap = bitmap;
+        mImageView.setImageBitmap(bitmap);
+
+        return previousBitmap;
+    }
+
+    /**
+     * @return bitmap that was shown
+     */
+    Bitmap dismiss() {
+        mPopup.dismiss();
+        return setBitmap(null);
+    }
+}
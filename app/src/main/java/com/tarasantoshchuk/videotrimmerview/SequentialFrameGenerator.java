@@ -0,0 +1,322 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * Decodes frames at several timestamps in a single forward pass of {@link MediaCodec},
+ * instead of restarting decoding from previous keyframe for every frame like
+ * {@link android.media.MediaMetadataRetriever} does. Groups of pictures that contain no
+ * requested timestamp are skipped by seeking. Frames are emitted as soon as they are decoded,
+ * in order of their timestamps, with {@link Thumbnail#mIndex} pointing into requested timestamps.
+ * Timestamps past the last decodable frame are not emitted.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class SequentialFrameGenerator {
+    private static final long DEQUEUE_TIMEOUT_US = 10_000;
+
+    private final VideoSource mSource;
+    private final SyncFrameLocator mSyncFrameLocator;
+    private final BitmapPool mBitmapPool;
+
+    SequentialFrameGenerator(VideoSource source, SyncFrameLocator syncFrameLocator, BitmapPool bitmapPool) {
+        mSource = source;
+        mSyncFrameLocator = syncFrameLocator;
+        mBitmapPool = bitmapPool;
+    }
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    Observable<Thumbnail> generate(final long[] timesUs, final int width, final int height) {
+        return Observable.create(new Observable.OnSubscribe<Thumbnail>() {
+            @Override
+            public void call(Subscriber<? super Thumbnail> subscriber) {
+                try {
+                    decode(subscriber, timesUs, width, height);
+                    subscriber.onCompleted();
+                } catch (IOException | InterruptedException | IllegalStateException e) {
+                    subscriber.onError(e);
+                }
+            }
+        });
+    }
+
+    private void decode(Subscriber<? super Thumbnail> subscriber, final long[] timesUs, int width, int height) throws IOException, InterruptedException {
+        if (timesUs.length == 0) {
+            return;
+        }
+
+        Integer[] order = new Integer[timesUs.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Long.valueOf(timesUs[lhs]).compareTo(timesUs[rhs]);
+            }
+        });
+
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec decoder = null;
+
+        try {
+            mSource.setDataSource(extractor);
+
+            MediaFormat format = selectVideoTrack(extractor);
+            int rotation = format.containsKey(MediaFormat.KEY_ROTATION) ? format.getInteger(MediaFormat.KEY_ROTATION) : 0;
+
+            decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+            decoder.configure(format, null, null, 0);
+            decoder.start();
+
+            extractor.seekTo(timesUs[order[0]], MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int[] pixels = new int[width * height];
+
+            int nextTarget = 0;
+            boolean isInputDone = false;
+            long previousPtsUs = -1;
+            //frames before the first pair of outputs are matched with nominal frame duration
+            long frameDurationUs = nominalFrameDurationUs(format);
+
+            while (nextTarget < order.length && !subscriber.isUnsubscribed()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                if (!isInputDone) {
+                    isInputDone = queueSample(extractor, decoder);
+                }
+
+                int outputIndex = decoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                boolean isTargetReached = false;
+
+                if (outputIndex < 0) {
+                    continue;
+                }
+
+                long ptsUs = info.presentationTimeUs;
+
+                if (previousPtsUs >= 0 && ptsUs > previousPtsUs) {
+                    frameDurationUs = ptsUs - previousPtsUs;
+                }
+
+                previousPtsUs = ptsUs;
+
+                if (info.size > 0 && isClosestFrame(ptsUs, frameDurationUs, timesUs[order[nextTarget]])) {
+                    Image image = decoder.getOutputImage(outputIndex);
+
+                    if (image == null) {
+                        throw new IllegalStateException("decoder output can't be accessed as image");
+                    }
+
+                    convertToArgb(image, rotation, pixels, width, height);
+                    image.close();
+
+                    //every bitmap must be cached under single key, so equal timestamps get their own copies
+                    while (nextTarget < order.length && isClosestFrame(ptsUs, frameDurationUs, timesUs[order[nextTarget]])) {
+                        Bitmap bitmap = mBitmapPool.obtain(width, height);
+                        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+
+                        subscriber.onNext(new Thumbnail(order[nextTarget], bitmap, true));
+                        nextTarget++;
+                    }
+
+                    isTargetReached = true;
+                }
+
+                decoder.releaseOutputBuffer(outputIndex, false);
+
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    break;
+                }
+
+                if (isTargetReached && nextTarget < order.length && !isInputDone && skipToKeyframeBefore(extractor, timesUs[order[nextTarget]])) {
+                    decoder.flush();
+                    //gap of the seek isn't a frame duration, duration measured so far is kept
+                    previousPtsUs = -1;
+                }
+            }
+        } finally {
+            if (decoder != null) {
+                decoder.release();
+            }
+
+            extractor.release();
+        }
+    }
+
+    /**
+     * @return frame duration from frame rate of track format, or 0 if format has no frame rate
+     */
+    private static long nominalFrameDurationUs(MediaFormat format) {
+        if (!format.containsKey(MediaFormat.KEY_FRAME_RATE)) {
+            return 0;
+        }
+
+        float frameRate;
+
+        //extractors store frame rate either as integer or as float
+        try {
+            frameRate = format.getInteger(MediaFormat.KEY_FRAME_RATE);
+        } catch (ClassCastException e) {
+            frameRate = format.getFloat(MediaFormat.KEY_FRAME_RATE);
+        }
+
+        return frameRate > 0 ? (long) (1_000_000 / frameRate) : 0;
+    }
+
+    static MediaFormat selectVideoTrack(MediaExtractor extractor) throws IOException {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+
+            if (mime != null && mime.startsWith("video/")) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+
+        throw new IOException("no video track");
+    }
+
+    /**
+     * @return true if end of stream was queued
+     */
+    private static boolean queueSample(MediaExtractor extractor, MediaCodec decoder) {
+        int inputIndex = decoder.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+
+        if (inputIndex < 0) {
+            return false;
+        }
+
+        ByteBuffer inputBuffer = decoder.getInputBuffer(inputIndex);
+        int sampleSize = extractor.readSampleData(inputBuffer, 0);
+
+        if (sampleSize < 0) {
+            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return true;
+        }
+
+        decoder.queueInputBuffer(inputIndex, 0, sampleSize, extractor.getSampleTime(), 0);
+        extractor.advance();
+        return false;
+    }
+
+    /**
+     * Seeks forward if there is a keyframe between current extractor position and target time
+     *
+     * @return true if extractor position was changed
+     */
+    private boolean skipToKeyframeBefore(MediaExtractor extractor, long targetTimeUs) {
+        long sampleTimeUs = extractor.getSampleTime();
+        long syncTimeUs = mSyncFrameLocator.previousSyncTimeUs(targetTimeUs);
+
+        if (sampleTimeUs < 0 || syncTimeUs <= sampleTimeUs) {
+            return false;
+        }
+
+        extractor.seekTo(targetTimeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        return true;
+    }
+
+    private static boolean isClosestFrame(long ptsUs, long frameDurationUs, long targetTimeUs) {
+        return ptsUs + frameDurationUs / 2 >= targetTimeUs;
+    }
+
+    /**
+     * Converts YUV 4:2:0 image to ARGB, scaling it with nearest neighbour sampling and rotating it
+     * clockwise by {@code rotation} degrees
+     */
+    private static void convertToArgb(Image image, int rotation, int[] pixels, int width, int height) {
+        Rect crop = image.getCropRect();
+        Image.Plane[] planes = image.getPlanes();
+
+        ByteBuffer yBuffer = planes[0].getBuffer();
+        ByteBuffer uBuffer = planes[1].getBuffer();
+        ByteBuffer vBuffer = planes[2].getBuffer();
+
+        int yRowStride = planes[0].getRowStride();
+        int yPixelStride = planes[0].getPixelStride();
+        int uRowStride = planes[1].getRowStride();
+        int uPixelStride = planes[1].getPixelStride();
+        int vRowStride = planes[2].getRowStride();
+        int vPixelStride = planes[2].getPixelStride();
+
+        int sourceWidth = crop.width();
+        int sourceHeight = crop.height();
+
+        boolean isTransposed = rotation == 90 || rotation == 270;
+        int rotatedWidth = isTransposed ? sourceHeight : sourceWidth;
+        int rotatedHeight = isTransposed ? sourceWidth : sourceHeight;
+
+        for (int y = 0; y < height; y++) {
+            int rotatedY = y * rotatedHeight / height;
+
+            for (int x = 0; x < width; x++) {
+                int rotatedX = x * rotatedWidth / width;
+
+                int sourceX;
+                int sourceY;
+
+                switch (rotation) {
+                    case 90:
+                        sourceX = rotatedY;
+                        sourceY = sourceHeight - 1 - rotatedX;
+                        break;
+                    case 180:
+                        sourceX = sourceWidth - 1 - rotatedX;
+                        sourceY = sourceHeight - 1 - rotatedY;
+                        break;
+                    case 270:
+                        sourceX = sourceWidth - 1 - rotatedY;
+                        sourceY = rotatedX;
+                        break;
+                    default:
+                        sourceX = rotatedX;
+                        sourceY = rotatedY;
+                        break;
+                }
+
+                sourceX += crop.left;
+                sourceY += crop.top;
+
+                int luma = (yBuffer.get(sourceY * yRowStride + sourceX * yPixelStride) & 0xff) - 16;
+                int u = (uBuffer.get((sourceY / 2) * uRowStride + (sourceX / 2) * uPixelStride) & 0xff) - 128;
+                int v = (vBuffer.get((sourceY / 2) * vRowStride + (sourceX / 2) * vPixelStride) & 0xff) - 128;
+
+                //BT.601 limited range
+                int r = clamp((298 * luma + 409 * v + 128) >> 8);
+                int g = clamp((298 * luma - 100 * u - 208 * v + 128) >> 8);
+                int b = clamp((298 * luma + 516 * u + 128) >> 8);
+
+                pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,85 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Finds timestamps of sync frames in the video track without decoding anything,
+ * seeking {@link MediaExtractor} only reads the sample index and one sample.
+ */
+class SyncFrameLocator {
+    private static final String TAG = "SyncFrameLocator";
+
+    private final VideoSource mSource;
+
+    private MediaExtractor mExtractor;
+    private boolean mIsOpenAttempted;
+
+    SyncFrameLocator(VideoSource source) {
+        mSource = source;
+    }
+
+    /**
+     * @return timestamp of sync frame closest to {@code timeUs}, or -1 if it can't be determined
+     */
+    long closestSyncTimeUs(long timeUs) {
+        return syncTimeUs(timeUs, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+    }
+
+    /**
+     * @return timestamp of last sync frame at or before {@code timeUs}, or -1 if it can't be determined
+     */
+    long previousSyncTimeUs(long timeUs) {
+        return syncTimeUs(timeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+    }
+
+    private synchronized long syncTimeUs(long timeUs, int seekMode) {
+        if (!ensureOpen()) {
+            return -1;
+        }
+
+        mExtractor.seekTo(timeUs, seekMode);
+        return mExtractor.getSampleTime();
+    }
+
+    synchronized void release() {
+        if (mExtractor != null) {
+            mExtractor.release();
+            mExtractor = null;
+        }
+    }
+
+    private boolean ensureOpen() {
+        if (mIsOpenAttempted) {
+            return mExtractor != null;
+        }
+
+        mIsOpenAttempted = true;
+
+        MediaExtractor extractor = new MediaExtractor();
+
+        try {
+            mSource.setDataSource(extractor);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to open video", e);
+            extractor.release();
+            return false;
+        }
+
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+
+            if (mime != null && mime.startsWith("video/")) {
+                extractor.selectTrack(i);
+                mExtractor = extractor;
+                return true;
+            }
+        }
+
+        extractor.release();
+        return false;
+    }
+}
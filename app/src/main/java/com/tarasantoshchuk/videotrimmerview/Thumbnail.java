@@ -0,0 +1,15 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.graphics.Bitmap;
+
+class Thumbnail {
+    final int mIndex;
+    final Bitmap mBitmap;
+    final boolean mIsExact;
+
+    Thumbnail(int index, Bitmap bitmap, boolean isExact) {
+        mIndex = index;
+        mBitmap = bitmap;
+        mIsExact = isExact;
+    }
+}
@@ -0,0 +1,63 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * Thread-safe LRU cache of decoded thumbnails bounded by their size in bytes.
+ * Thumbnails are keyed by video timestamp quantized to {@link #KEY_QUANTUM_US},
+ * so frames requested for different layouts of the same moment share one entry.
+ * Hit and miss counters are available through {@link #hitCount()} and {@link #missCount()}.
+ * Every bitmap must be cached under a single key, removed bitmaps are handed to {@link BitmapPool}.
+ */
+class ThumbnailCache extends LruCache<Long, Bitmap> {
+    static final long KEY_QUANTUM_US = 40_000;
+
+    private final BitmapPool mBitmapPool;
+
+    ThumbnailCache(int maxSizeBytes, BitmapPool bitmapPool) {
+        super(maxSizeBytes);
+        mBitmapPool = bitmapPool;
+    }
+
+    static int defaultMaxSizeBytes() {
+        return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    static long keyFor(long timeUs) {
+        return Math.round(timeUs / (double) KEY_QUANTUM_US);
+    }
+
+    static long timeUsFor(long key) {
+        return key * KEY_QUANTUM_US;
+    }
+
+    /**
+     * Looks thumbnail up and marks it as shown in {@link BitmapPool} under pool lock, so thumbnail
+     * evicted on another thread right after the lookup isn't reused before caller shows it.
+     * Caller must hide returned thumbnail once it doesn't need it.
+     */
+    Bitmap getAndShow(long key) {
+        synchronized (mBitmapPool) {
+            Bitmap bitmap = get(key);
+
+            if (bitmap != null) {
+                mBitmapPool.onShown(bitmap);
+            }
+
+            return bitmap;
+        }
+    }
+
+    @Override
+    protected int sizeOf(Long key, Bitmap value) {
+        return value.getByteCount();
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue, Bitmap newValue) {
+        if (oldValue != newValue) {
+            mBitmapPool.onEvicted(oldValue);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Persistent thumbnail storage, one append-only journal file per video source.
+ * Journal name is derived from {@link VideoSource#identity()}, so a changed file
+ * never reuses stale thumbnails, sources without identity are not cached. Each record holds quantized timestamp, thumbnail dimensions
+ * and JPEG payload. Journals that are least recently used are deleted once all of them together
+ * exceed the size cap.
+ */
+class ThumbnailDiskCache {
+    private static final String TAG = "ThumbnailDiskCache";
+
+    private static final String DIRECTORY_NAME = "thumbnails";
+    private static final String JOURNAL_EXTENSION = ".journal";
+
+    static final long DEFAULT_MAX_SIZE_BYTES = 32 * 1024 * 1024;
+
+    private static final int RECORD_HEADER_SIZE = 8 + 4 + 4 + 4;
+    private static final int JPEG_QUALITY = 85;
+
+    private final File mDirectory;
+    private final VideoSource mSource;
+    private final long mMaxSizeBytes;
+
+    private final HashMap<RecordKey, Record> mIndex = new HashMap<>();
+
+    private File mJournalFile;
+    private RandomAccessFile mJournal;
+    private FileChannel mChannel;
+    private boolean mIsOpenAttempted;
+    private int mGeneration;
+
+    ThumbnailDiskCache(File cacheDir, VideoSource source) {
+        this(cacheDir, source, DEFAULT_MAX_SIZE_BYTES);
+    }
+
+    ThumbnailDiskCache(File cacheDir, VideoSource source, long maxSizeBytes) {
+        mDirectory = new File(cacheDir, DIRECTORY_NAME);
+        mSource = source;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    private static String journalName(String sourceIdentity) {
+        long hash = 1125899906842597L;
+
+        for (int i = 0; i < sourceIdentity.length(); i++) {
+            hash = 31 * hash + sourceIdentity.charAt(i);
+        }
+
+        return Long.toHexString(hash) + JOURNAL_EXTENSION;
+    }
+
+    Bitmap get(long timeKey, int width, int height, BitmapPool bitmapPool) {
+        Record record;
+        FileChannel channel;
+        int generation;
+
+        synchronized (this) {
+            if (!ensureOpen()) {
+                return null;
+            }
+
+            record = mIndex.get(new RecordKey(timeKey, width, height));
+            channel = mChannel;
+            generation = mGeneration;
+        }
+
+        if (record == null) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(record.mLength);
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, record.mOffset + buffer.position()) < 0) {
+                    return null;
+                }
+            }
+
+            synchronized (this) {
+                if (generation != mGeneration) {
+                    //journal was started over while reading
+                    return null;
+                }
+            }
+
+            Bitmap reusedBitmap = bitmapPool.obtain(width, height);
+            Bitmap bitmap = decode(buffer.array(), record.mLength, reusedBitmap);
+
+            if (bitmap != reusedBitmap) {
+                //bitmap that was never handed out goes straight back to pool
+                bitmapPool.onEvicted(reusedBitmap);
+            }
+
+            if (bitmap == null) {
+                Log.w(TAG, "dropping corrupt thumbnail at " + timeKey);
+                remove(record, timeKey, width, height, generation);
+            }
+
+            return bitmap;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read thumbnail", e);
+            return null;
+        }
+    }
+
+    /**
+     * Forgets record, so thumbnail is stored again on next {@link #put(long, int, int, Bitmap)}
+     */
+    private synchronized void remove(Record record, long timeKey, int width, int height, int generation) {
+        RecordKey key = new RecordKey(timeKey, width, height);
+
+        if (generation == mGeneration && mIndex.get(key) == record) {
+            mIndex.remove(key);
+        }
+    }
+
+    private static Bitmap decode(byte[] data, int length, Bitmap reusedBitmap) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inBitmap = reusedBitmap;
+
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, length, options);
+        } catch (IllegalArgumentException e) {
+            //stored thumbnail doesn't fit into reused bitmap
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, length, options);
+        }
+    }
+
+    void put(long timeKey, int width, int height, Bitmap bitmap) {
+        RecordKey key = new RecordKey(timeKey, width, height);
+
+        synchronized (this) {
+            if (!ensureOpen() || mIndex.containsKey(key)) {
+                return;
+            }
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, payload);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.size());
+        record.putLong(timeKey)
+                .putInt(width)
+                .putInt(height)
+                .putInt(payload.size())
+                .put(payload.toByteArray())
+                .flip();
+
+        synchronized (this) {
+            if (mChannel == null || mIndex.containsKey(key)) {
+                return;
+            }
+
+            try {
+                long recordOffset = mChannel.size();
+
+                if (recordOffset + record.remaining() > mMaxSizeBytes / 2) {
+                    //journal is full, start it over instead of compacting
+                    mChannel.truncate(0);
+                    mIndex.clear();
+                    mGeneration++;
+                    recordOffset = 0;
+                }
+
+                long position = recordOffset;
+                while (record.hasRemaining()) {
+                    position += mChannel.write(record, position);
+                }
+
+                mIndex.put(key, new Record(recordOffset + RECORD_HEADER_SIZE, payload.size()));
+            } catch (IOException e) {
+                Log.w(TAG, "failed to write thumbnail", e);
+            }
+        }
+    }
+
+    synchronized void close() {
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        mJournal = null;
+        mChannel = null;
+        mIndex.clear();
+    }
+
+    private boolean ensureOpen() {
+        if (mIsOpenAttempted) {
+            return mChannel != null;
+        }
+
+        mIsOpenAttempted = true;
+
+        //identity reads file attributes, so it is resolved on first access from decoding thread
+        String sourceIdentity = mSource.identity();
+
+        if (sourceIdentity == null) {
+            return false;
+        }
+
+        mJournalFile = new File(mDirectory, journalName(sourceIdentity));
+
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                return false;
+            }
+
+            mJournal = new RandomAccessFile(mJournalFile, "rw");
+            mChannel = mJournal.getChannel();
+
+            readIndex();
+
+            mJournalFile.setLastModified(System.currentTimeMillis());
+            trimDirectory();
+
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to open thumbnail journal", e);
+            close();
+            return false;
+        }
+    }
+
+    private void readIndex() throws IOException {
+        long size = mChannel.size();
+        long position = 0;
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+
+            while (header.hasRemaining()) {
+                mChannel.read(header, position + header.position());
+            }
+
+            header.flip();
+
+            long timeKey = header.getLong();
+            int width = header.getInt();
+            int height = header.getInt();
+            int length = header.getInt();
+
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+
+            mIndex.put(new RecordKey(timeKey, width, height), new Record(position + RECORD_HEADER_SIZE, length));
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        if (position < size) {
+            //drop record that was interrupted while being written
+            mChannel.truncate(position);
+        }
+    }
+
+    private void trimDirectory() {
+        File[] journals = mDirectory.listFiles();
+
+        if (journals == null) {
+            return;
+        }
+
+        Arrays.sort(journals, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? 1 : (lhsModified == rhsModified ? 0 : -1);
+            }
+        });
+
+        long totalSize = 0;
+
+        for (File journal : journals) {
+            totalSize += journal.length();
+
+            if (totalSize > mMaxSizeBytes && !journal.equals(mJournalFile)) {
+                totalSize -= journal.length();
+                journal.delete();
+            }
+        }
+    }
+
+    private static class RecordKey {
+        private final long mTimeKey;
+        private final int mWidth;
+        private final int mHeight;
+
+        RecordKey(long timeKey, int width, int height) {
+            mTimeKey = timeKey;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof RecordKey)) {
+                return false;
+            }
+
+            RecordKey other = (RecordKey) o;
+            return mTimeKey == other.mTimeKey && mWidth == other.mWidth && mHeight == other.mHeight;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (mTimeKey ^ (mTimeKey >>> 32));
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            return result;
+        }
+    }
+
+    private static class Record {
+        private final long mOffset;
+        private final int mLength;
+
+        Record(long offset, int length) {
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+}
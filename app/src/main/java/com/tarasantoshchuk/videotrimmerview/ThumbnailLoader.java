@@ -0,0 +1,816 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action0;
+import rx.functions.Actions;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.subjects.AsyncSubject;
+
+/**
+ * Loads thumbnails of single video source, looking them up in memory cache, then on disk,
+ * and decoding them only when both miss. Missing thumbnails are decoded in parallel on
+ * {@link MetadataRetrieverPool}, unless there are more of them than pooled retrievers,
+ * then {@link SequentialFrameGenerator} decodes them in one pass. Thumbnails can also be prefetched
+ * one by one on a separate low priority thread, which waits while prefetching is paused.
+ * Concurrent requests for the same exact frame share a single decode, decodes that are no longer
+ * needed by anyone are skipped before they start. Previews of dragged trim handle are decoded
+ * on their own {@link PreviewLane}, so they never wait for thumbnails.
+ */
+class ThumbnailLoader {
+    private static final int PREFETCH_THREAD_PRIORITY = Thread.MIN_PRIORITY;
+
+    private final VideoSource mSource;
+
+    private final MetadataRetrieverPool mRetrieverPool;
+    private final MetadataRetrieverPool mPrefetchRetrieverPool;
+    private final PauseGate mPrefetchGate = new PauseGate();
+    private final SyncFrameLocator mSyncFrameLocator;
+    private final ThumbnailDiskCache mDiskCache;
+    private final BitmapPool mBitmapPool = new BitmapPool();
+    private final HashMap<Long, InFlightDecode> mInFlightDecodes = new HashMap<>();
+    private final TrimmerMetrics mMetrics;
+    private final PreviewLane mPreviewLane;
+
+    private ThumbnailCache mMemoryCache;
+    private Trimmer.ThumbnailMode mThumbnailMode;
+
+    ThumbnailLoader(File cacheDir, VideoSource source, int memoryCacheSizeBytes, Trimmer.ThumbnailMode thumbnailMode, TrimmerMetrics metrics) {
+        mSource = source;
+        mMetrics = metrics;
+        mRetrieverPool = new MetadataRetrieverPool(source);
+        mPrefetchRetrieverPool = new MetadataRetrieverPool(source, 1, PREFETCH_THREAD_PRIORITY);
+        mSyncFrameLocator = new SyncFrameLocator(source);
+        mDiskCache = new ThumbnailDiskCache(cacheDir, source);
+        mMemoryCache = new ThumbnailCache(memoryCacheSizeBytes, mBitmapPool);
+        mThumbnailMode = thumbnailMode;
+        mPreviewLane = new PreviewLane(source);
+    }
+
+    /**
+     * @param refinementThresholdUs max distance from keyframe to requested time that makes keyframe
+     *                              good enough in {@link Trimmer.ThumbnailMode#PROGRESSIVE} mode
+     * @return observable emitting exact thumbnail for each of {@code timesUs} on main thread in order they are loaded,
+     * optionally preceded by keyframe thumbnail, {@link Thumbnail#mIndex} points into {@code timesUs}.
+     * Thumbnails found in memory cache are emitted synchronously on subscription.
+     */
+    Observable<Thumbnail> loadAll(final long[] timesUs, final int width, final int height, final long refinementThresholdUs) {
+        final ThumbnailCache memoryCache = mMemoryCache;
+        final Trimmer.ThumbnailMode thumbnailMode = mThumbnailMode;
+
+        return Observable.defer(new Func0<Observable<Thumbnail>>() {
+            @Override
+            public Observable<Thumbnail> call() {
+                final boolean[] isLoaded = new boolean[timesUs.length];
+                final PinnedThumbnails pinned = new PinnedThumbnails();
+                List<Thumbnail> memoryHits = new ArrayList<>();
+
+                for (int i = 0; i < timesUs.length; i++) {
+                    Bitmap cached = memoryCache.getAndShow(ThumbnailCache.keyFor(timesUs[i]));
+
+                    if (cached != null) {
+                        isLoaded[i] = true;
+                        pinned.add(cached);
+                        memoryHits.add(new Thumbnail(i, cached, true));
+                    }
+                }
+
+                Observable<Thumbnail> thumbnails = Observable.from(memoryHits);
+
+                if (memoryHits.size() < timesUs.length) {
+                    thumbnails = thumbnails.concatWith(Observable.create(new StoredOnSubscribe(memoryCache, timesUs, width, height, isLoaded, pinned))
+                            .subscribeOn(mRetrieverPool.scheduler())
+                            .concatWith(Observable.defer(new Func0<Observable<Thumbnail>>() {
+                                @Override
+                                public Observable<Thumbnail> call() {
+                                    return decodeMissing(memoryCache, thumbnailMode, timesUs, width, height, refinementThresholdUs, isLoaded, pinned);
+                                }
+                            }))
+                            .observeOn(AndroidSchedulers.mainThread()));
+                }
+
+                return thumbnails
+                        .lift(pinned.unpinDelivered())
+                        .doOnUnsubscribe(new Action0() {
+                            @Override
+                            public void call() {
+                                pinned.unpinAll();
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Decodes and caches thumbnails that are not cached yet, one at a time on low priority thread
+     */
+    Subscription prefetch(long[] timesUs, int width, int height) {
+        return Observable.create(new PrefetchOnSubscribe(mMemoryCache, timesUs, width, height))
+                .subscribeOn(mPrefetchRetrieverPool.scheduler())
+                .subscribe(Actions.empty(), Actions.<Throwable>toAction1(Actions.empty()));
+    }
+
+    /**
+     * Decodes preview frame, dropping previous preview request if it hasn't started decoding yet
+     */
+    void requestPreview(long timeUs, int width, int height, boolean isExact, PreviewLane.Listener listener) {
+        mPreviewLane.request(timeUs, width, height, isExact, listener);
+    }
+
+    void recyclePreview(Bitmap bitmap) {
+        mPreviewLane.recycle(bitmap);
+    }
+
+    void pausePrefetch() {
+        mPrefetchGate.close();
+    }
+
+    void resumePrefetch() {
+        mPrefetchGate.open();
+    }
+
+    private Observable<Thumbnail> decodeMissing(final ThumbnailCache memoryCache, final Trimmer.ThumbnailMode thumbnailMode,
+                                                final long[] timesUs, final int width, final int height,
+                                                final long refinementThresholdUs, final boolean[] isLoaded,
+                                                final PinnedThumbnails pinned) {
+        int missingCount = 0;
+        for (boolean loaded : isLoaded) {
+            missingCount += loaded ? 0 : 1;
+        }
+
+        if (missingCount <= mRetrieverPool.size() || thumbnailMode != Trimmer.ThumbnailMode.EXACT || !SequentialFrameGenerator.isSupported()) {
+            return decodeInParallel(memoryCache, thumbnailMode, timesUs, width, height, refinementThresholdUs, isLoaded, pinned);
+        }
+
+        //frames that are already being decoded are not decoded again
+        List<Observable<Thumbnail>> joinedDecodes = new ArrayList<>();
+
+        for (int i = 0; i < timesUs.length; i++) {
+            if (!isLoaded[i] && isInFlight(ThumbnailCache.keyFor(timesUs[i]), width, height)) {
+                joinedDecodes.add(load(memoryCache, thumbnailMode, i, timesUs[i], width, height, refinementThresholdUs, isLoaded, pinned));
+                isLoaded[i] = true;
+                missingCount--;
+            }
+        }
+
+        final int[] missingIndices = new int[missingCount];
+        long[] missingTimesUs = new long[missingCount];
+        final long[] missingKeys = new long[missingCount];
+
+        for (int i = 0, j = 0; i < timesUs.length; i++) {
+            if (!isLoaded[i]) {
+                missingIndices[j] = i;
+                missingKeys[j] = ThumbnailCache.keyFor(timesUs[i]);
+                missingTimesUs[j] = ThumbnailCache.timeUsFor(missingKeys[j]);
+                j++;
+            }
+        }
+
+        //requests for the same frames join generator instead of decoding them again
+        final List<AsyncSubject<Bitmap>> generatedFrames = registerGenerated(missingKeys, width, height);
+        Action0 abandonGenerated = new Action0() {
+            @Override
+            public void call() {
+                for (int i = 0; i < missingKeys.length; i++) {
+                    finishGenerated(missingKeys[i], generatedFrames.get(i), null);
+                }
+            }
+        };
+
+        Observable<Thumbnail> generated = new SequentialFrameGenerator(mSource, mSyncFrameLocator, mBitmapPool)
+                .generate(missingTimesUs, width, height)
+                .subscribeOn(mRetrieverPool.scheduler())
+                .map(new Func1<Thumbnail, Thumbnail>() {
+                    @Override
+                    public Thumbnail call(Thumbnail thumbnail) {
+                        int index = missingIndices[thumbnail.mIndex];
+                        long cacheKey = ThumbnailCache.keyFor(timesUs[index]);
+
+                        //generated bitmap isn't shared yet, so it can be shown before it can be evicted
+                        mBitmapPool.onShown(thumbnail.mBitmap);
+                        memoryCache.put(cacheKey, thumbnail.mBitmap);
+                        finishGenerated(cacheKey, generatedFrames.get(thumbnail.mIndex), thumbnail.mBitmap);
+                        mDiskCache.put(cacheKey, width, height, thumbnail.mBitmap);
+                        pinned.add(thumbnail.mBitmap);
+
+                        isLoaded[index] = true;
+                        return new Thumbnail(index, thumbnail.mBitmap, true);
+                    }
+                })
+                //frames that weren't generated are decoded by requests that joined them
+                .doOnTerminate(abandonGenerated)
+                .doOnUnsubscribe(abandonGenerated)
+                .onErrorResumeNext(Observable.<Thumbnail>empty());
+
+        return Observable.merge(joinedDecodes).mergeWith(countCancelled(generated, missingIndices, isLoaded)
+                .concatWith(Observable.defer(new Func0<Observable<Thumbnail>>() {
+                    @Override
+                    public Observable<Thumbnail> call() {
+                        //generator stops at the end of stream and gives up on unsupported decoder output
+                        return decodeInParallel(memoryCache, thumbnailMode, timesUs, width, height, refinementThresholdUs, isLoaded, pinned);
+                    }
+                })));
+    }
+
+    private Observable<Thumbnail> decodeInParallel(ThumbnailCache memoryCache, Trimmer.ThumbnailMode thumbnailMode,
+                                                   long[] timesUs, int width, int height,
+                                                   long refinementThresholdUs, boolean[] isLoaded, PinnedThumbnails pinned) {
+        List<Observable<Thumbnail>> loads = new ArrayList<>();
+
+        for (int i = 0; i < timesUs.length; i++) {
+            if (!isLoaded[i]) {
+                loads.add(load(memoryCache, thumbnailMode, i, timesUs[i], width, height, refinementThresholdUs, isLoaded, pinned));
+            }
+        }
+
+        return Observable.merge(loads);
+    }
+
+    private Observable<Thumbnail> load(final ThumbnailCache memoryCache, Trimmer.ThumbnailMode thumbnailMode,
+                                       final int index, long timeUs, final int width, final int height,
+                                       long refinementThresholdUs, final boolean[] isLoaded, final PinnedThumbnails pinned) {
+        final long cacheKey = ThumbnailCache.keyFor(timeUs);
+
+        final Observable<Thumbnail> exact = Observable.defer(new Func0<Observable<Bitmap>>() {
+            @Override
+            public Observable<Bitmap> call() {
+                return decodeExact(mRetrieverPool, memoryCache, cacheKey, width, height);
+            }
+        })
+                .subscribeOn(mRetrieverPool.scheduler())
+                .concatMap(new Func1<Bitmap, Observable<Thumbnail>>() {
+                    @Override
+                    public Observable<Thumbnail> call(Bitmap bitmap) {
+                        //decoded frame is shared with joined requests, which may get it after it was evicted and reused,
+                        //so the frame that is still cached is shown instead, frame evicted that early isn't shown at all
+                        Bitmap cached = memoryCache.getAndShow(cacheKey);
+
+                        if (cached == null) {
+                            return Observable.empty();
+                        }
+
+                        pinned.add(cached);
+                        isLoaded[index] = true;
+                        return Observable.just(new Thumbnail(index, cached, true));
+                    }
+                });
+
+        if (thumbnailMode != Trimmer.ThumbnailMode.PROGRESSIVE) {
+            return countCancelled(exact, new int[] {index}, isLoaded);
+        }
+
+        Observable<Thumbnail> progressive = Observable.create(new KeyframeOnSubscribe(memoryCache, index, cacheKey, width, height, refinementThresholdUs, isLoaded, pinned))
+                .subscribeOn(mRetrieverPool.scheduler())
+                .concatWith(Observable.defer(new Func0<Observable<Thumbnail>>() {
+                    @Override
+                    public Observable<Thumbnail> call() {
+                        return isLoaded[index] ? Observable.<Thumbnail>empty() : exact;
+                    }
+                }));
+
+        return countCancelled(progressive, new int[] {index}, isLoaded);
+    }
+
+    /**
+     * Counts thumbnails at {@code indices} that are still not loaded when {@code thumbnails}
+     * is unsubscribed before it terminates
+     */
+    private Observable<Thumbnail> countCancelled(Observable<Thumbnail> thumbnails, final int[] indices, final boolean[] isLoaded) {
+        final AtomicBoolean isTerminated = new AtomicBoolean();
+
+        return thumbnails
+                .doOnTerminate(new Action0() {
+                    @Override
+                    public void call() {
+                        isTerminated.set(true);
+                    }
+                })
+                .doOnUnsubscribe(new Action0() {
+                    @Override
+                    public void call() {
+                        if (isTerminated.get()) {
+                            return;
+                        }
+
+                        int cancelledCount = 0;
+                        for (int index : indices) {
+                            cancelledCount += isLoaded[index] ? 0 : 1;
+                        }
+
+                        mMetrics.onDecodesCancelled(cancelledCount);
+                    }
+                });
+    }
+
+    /**
+     * @return observable decoding exact frame on the thread it is subscribed on, or joining decode
+     * of the same frame that is already in progress
+     */
+    private Observable<Bitmap> decodeExact(MetadataRetrieverPool retrieverPool, ThumbnailCache memoryCache,
+                                           final long cacheKey, int width, int height) {
+        synchronized (mInFlightDecodes) {
+            InFlightDecode inFlightDecode = mInFlightDecodes.get(cacheKey);
+
+            if (inFlightDecode != null && inFlightDecode.mWidth == width && inFlightDecode.mHeight == height) {
+                //decode that has just finished emits nothing to late subscribers, they find its result in cache
+                return inFlightDecode.mDecode
+                        .switchIfEmpty(Observable.create(new DecodeOnSubscribe(retrieverPool, memoryCache, cacheKey, width, height)));
+            }
+
+            final InFlightDecode newDecode = new InFlightDecode(width, height);
+
+            Action0 removeDecode = new Action0() {
+                @Override
+                public void call() {
+                    synchronized (mInFlightDecodes) {
+                        if (mInFlightDecodes.get(cacheKey) == newDecode) {
+                            mInFlightDecodes.remove(cacheKey);
+                        }
+                    }
+                }
+            };
+
+            newDecode.mDecode = Observable.create(new DecodeOnSubscribe(retrieverPool, memoryCache, cacheKey, width, height))
+                    .doOnTerminate(removeDecode)
+                    .doOnUnsubscribe(removeDecode)
+                    .share();
+
+            mInFlightDecodes.put(cacheKey, newDecode);
+
+            return newDecode.mDecode;
+        }
+    }
+
+    /**
+     * Registers frames that are about to be decoded by {@link SequentialFrameGenerator} as in-flight decodes
+     *
+     * @return subjects that emit generated frames, in order of {@code cacheKeys}
+     */
+    private List<AsyncSubject<Bitmap>> registerGenerated(long[] cacheKeys, int width, int height) {
+        List<AsyncSubject<Bitmap>> frames = new ArrayList<>(cacheKeys.length);
+        HashMap<Long, AsyncSubject<Bitmap>> batchFrames = new HashMap<>();
+
+        synchronized (mInFlightDecodes) {
+            for (long cacheKey : cacheKeys) {
+                AsyncSubject<Bitmap> frame = batchFrames.get(cacheKey);
+
+                //equal timestamps of the same batch share one frame
+                if (frame == null) {
+                    frame = AsyncSubject.create();
+                    batchFrames.put(cacheKey, frame);
+
+                    InFlightDecode inFlightDecode = new InFlightDecode(width, height);
+                    inFlightDecode.mDecode = frame;
+                    mInFlightDecodes.put(cacheKey, inFlightDecode);
+                }
+
+                frames.add(frame);
+            }
+        }
+
+        return frames;
+    }
+
+    /**
+     * Completes generated frame, joined requests decode frame themselves if {@code bitmap} is null
+     */
+    private void finishGenerated(long cacheKey, AsyncSubject<Bitmap> frame, Bitmap bitmap) {
+        synchronized (mInFlightDecodes) {
+            InFlightDecode inFlightDecode = mInFlightDecodes.get(cacheKey);
+
+            if (inFlightDecode != null && inFlightDecode.mDecode == frame) {
+                mInFlightDecodes.remove(cacheKey);
+            }
+        }
+
+        //generator thread and unsubscribing thread may finish the same frame
+        synchronized (frame) {
+            if (frame.hasCompleted()) {
+                return;
+            }
+
+            if (bitmap != null) {
+                frame.onNext(bitmap);
+            }
+
+            frame.onCompleted();
+        }
+    }
+
+    private boolean isInFlight(long cacheKey, int width, int height) {
+        synchronized (mInFlightDecodes) {
+            InFlightDecode inFlightDecode = mInFlightDecodes.get(cacheKey);
+            return inFlightDecode != null && inFlightDecode.mWidth == width && inFlightDecode.mHeight == height;
+        }
+    }
+
+    void setThumbnailMode(Trimmer.ThumbnailMode thumbnailMode) {
+        mThumbnailMode = thumbnailMode;
+    }
+
+    void setMemoryCacheSize(int maxSizeBytes) {
+        mMemoryCache.evictAll();
+        mMemoryCache = new ThumbnailCache(maxSizeBytes, mBitmapPool);
+    }
+
+    void clearMemoryCache() {
+        mMemoryCache.evictAll();
+        mBitmapPool.clear();
+    }
+
+    int memoryCacheHitCount() {
+        return mMemoryCache.hitCount();
+    }
+
+    int memoryCacheMissCount() {
+        return mMemoryCache.missCount();
+    }
+
+    void onThumbnailShown(Bitmap bitmap) {
+        mBitmapPool.onShown(bitmap);
+    }
+
+    void onThumbnailHidden(Bitmap bitmap) {
+        mBitmapPool.onHidden(bitmap);
+    }
+
+    boolean isReleased() {
+        return mRetrieverPool.isShutDown();
+    }
+
+    void release() {
+        mRetrieverPool.shutdown();
+        mPrefetchRetrieverPool.shutdown();
+        mPreviewLane.release();
+        mPrefetchGate.open();
+        mDiskCache.close();
+        mSyncFrameLocator.release();
+        mMemoryCache.evictAll();
+        mBitmapPool.clear();
+    }
+
+    private Bitmap decodeFrame(MetadataRetrieverPool retrieverPool, long timeUs, int option, int width, int height) throws InterruptedException {
+        MediaMetadataRetriever retriever = retrieverPool.acquire();
+
+        try {
+            return FrameGrabber.grab(retriever, mBitmapPool, timeUs, option, width, height);
+        } finally {
+            retrieverPool.release(retriever);
+        }
+    }
+
+    private class PrefetchOnSubscribe implements Observable.OnSubscribe<Void> {
+        private final ThumbnailCache mMemoryCache;
+        private final long[] mTimesUs;
+        private final int mWidth;
+        private final int mHeight;
+
+        PrefetchOnSubscribe(ThumbnailCache memoryCache, long[] timesUs, int width, int height) {
+            mMemoryCache = memoryCache;
+            mTimesUs = timesUs;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public void call(Subscriber<? super Void> subscriber) {
+            try {
+                for (int i = 0; i < mTimesUs.length; i++) {
+                    mPrefetchGate.await();
+
+                    if (subscriber.isUnsubscribed()) {
+                        mMetrics.onDecodesCancelled(mTimesUs.length - i);
+                        return;
+                    }
+
+                    //blocks until frame is decoded on this thread, or by another request that decodes it already
+                    decodeExact(mPrefetchRetrieverPool, mMemoryCache, ThumbnailCache.keyFor(mTimesUs[i]), mWidth, mHeight)
+                            .onErrorResumeNext(Observable.<Bitmap>empty())
+                            .toBlocking()
+                            .lastOrDefault(null);
+                }
+
+                subscriber.onCompleted();
+            } catch (InterruptedException e) {
+                subscriber.onError(e);
+            }
+        }
+    }
+
+    private static class PauseGate {
+        private boolean mIsOpen = true;
+
+        synchronized void open() {
+            mIsOpen = true;
+            notifyAll();
+        }
+
+        synchronized void close() {
+            mIsOpen = false;
+        }
+
+        synchronized void await() throws InterruptedException {
+            while (!mIsOpen) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Emits thumbnails that are not loaded yet but are found in disk cache, and marks them as loaded
+     */
+    private class StoredOnSubscribe implements Observable.OnSubscribe<Thumbnail> {
+        private final ThumbnailCache mMemoryCache;
+        private final long[] mTimesUs;
+        private final int mWidth;
+        private final int mHeight;
+        private final boolean[] mIsLoaded;
+        private final PinnedThumbnails mPinned;
+
+        StoredOnSubscribe(ThumbnailCache memoryCache, long[] timesUs, int width, int height, boolean[] isLoaded, PinnedThumbnails pinned) {
+            mMemoryCache = memoryCache;
+            mTimesUs = timesUs;
+            mWidth = width;
+            mHeight = height;
+            mIsLoaded = isLoaded;
+            mPinned = pinned;
+        }
+
+        @Override
+        public void call(Subscriber<? super Thumbnail> subscriber) {
+            for (int i = 0; i < mTimesUs.length && !subscriber.isUnsubscribed(); i++) {
+                if (mIsLoaded[i]) {
+                    continue;
+                }
+
+                Bitmap stored = getStoredAndShow(mMemoryCache, ThumbnailCache.keyFor(mTimesUs[i]), mWidth, mHeight);
+
+                if (stored != null) {
+                    mIsLoaded[i] = true;
+                    mPinned.add(stored);
+                    subscriber.onNext(new Thumbnail(i, stored, true));
+                }
+            }
+
+            subscriber.onCompleted();
+        }
+    }
+
+    /**
+     * @return thumbnail from memory or disk cache, shown in {@link BitmapPool} until caller hides it
+     */
+    private Bitmap getCachedAndShow(ThumbnailCache memoryCache, long cacheKey, int width, int height) {
+        Bitmap cached = memoryCache.getAndShow(cacheKey);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        return getStoredAndShow(memoryCache, cacheKey, width, height);
+    }
+
+    /**
+     * Reads thumbnail from disk cache and puts it into memory cache, returned thumbnail is shown
+     * in {@link BitmapPool} until caller hides it
+     */
+    private Bitmap getStoredAndShow(ThumbnailCache memoryCache, long cacheKey, int width, int height) {
+        Bitmap stored = mDiskCache.get(cacheKey, width, height, mBitmapPool);
+
+        if (stored != null) {
+            mBitmapPool.onShown(stored);
+            memoryCache.put(cacheKey, stored);
+        }
+
+        return stored;
+    }
+
+    /**
+     * Thumbnails of one request that are shown in {@link BitmapPool} on behalf of the view until they reach it
+     * on main thread, so that thumbnails evicted from cache on the way there aren't reused meanwhile.
+     * Thumbnails that never reach the view are hidden when request is unsubscribed.
+     */
+    private class PinnedThumbnails {
+        private final List<Bitmap> mBitmaps = new ArrayList<>();
+        private boolean mIsUnpinned;
+
+        /**
+         * @param bitmap bitmap that is already shown in {@link BitmapPool}, it is hidden right away
+         *               if request was unsubscribed
+         */
+        synchronized void add(Bitmap bitmap) {
+            if (mIsUnpinned) {
+                mBitmapPool.onHidden(bitmap);
+            } else {
+                mBitmaps.add(bitmap);
+            }
+        }
+
+        synchronized void unpin(Bitmap bitmap) {
+            if (mBitmaps.remove(bitmap)) {
+                mBitmapPool.onHidden(bitmap);
+            }
+        }
+
+        synchronized void unpinAll() {
+            mIsUnpinned = true;
+
+            for (Bitmap bitmap : mBitmaps) {
+                mBitmapPool.onHidden(bitmap);
+            }
+
+            mBitmaps.clear();
+        }
+
+        /**
+         * @return operator that unpins each thumbnail after subscriber has received it, and has shown it if it needs it
+         */
+        Observable.Operator<Thumbnail, Thumbnail> unpinDelivered() {
+            return new Observable.Operator<Thumbnail, Thumbnail>() {
+                @Override
+                public Subscriber<? super Thumbnail> call(final Subscriber<? super Thumbnail> subscriber) {
+                    return new Subscriber<Thumbnail>(subscriber) {
+                        @Override
+                        public void onCompleted() {
+                            subscriber.onCompleted();
+                        }
+
+                        @Override
+                        public void onError(Throwable e) {
+                            subscriber.onError(e);
+                        }
+
+                        @Override
+                        public void onNext(Thumbnail thumbnail) {
+                            try {
+                                subscriber.onNext(thumbnail);
+                            } finally {
+                                unpin(thumbnail.mBitmap);
+                            }
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private static class InFlightDecode {
+        private final int mWidth;
+        private final int mHeight;
+
+        private Observable<Bitmap> mDecode;
+
+        InFlightDecode(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+        }
+    }
+
+    /**
+     * Emits exact frame from cache, or decodes and caches it unless nobody waits for it anymore
+     */
+    private class DecodeOnSubscribe implements Observable.OnSubscribe<Bitmap> {
+        private final MetadataRetrieverPool mDecodingRetrieverPool;
+        private final ThumbnailCache mMemoryCache;
+        private final long mCacheKey;
+        private final int mWidth;
+        private final int mHeight;
+
+        DecodeOnSubscribe(MetadataRetrieverPool retrieverPool, ThumbnailCache memoryCache, long cacheKey, int width, int height) {
+            mDecodingRetrieverPool = retrieverPool;
+            mMemoryCache = memoryCache;
+            mCacheKey = cacheKey;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public void call(Subscriber<? super Bitmap> subscriber) {
+            Bitmap cached = getCachedAndShow(mMemoryCache, mCacheKey, mWidth, mHeight);
+
+            if (cached != null) {
+                try {
+                    subscriber.onNext(cached);
+                    subscriber.onCompleted();
+                } finally {
+                    mBitmapPool.onHidden(cached);
+                }
+
+                return;
+            }
+
+            if (subscriber.isUnsubscribed()) {
+                return;
+            }
+
+            try {
+                long timeUs = ThumbnailCache.timeUsFor(mCacheKey);
+                Bitmap exact = decodeFrame(mDecodingRetrieverPool, timeUs, MediaMetadataRetriever.OPTION_CLOSEST, mWidth, mHeight);
+
+                if (exact == null) {
+                    subscriber.onError(new IllegalStateException("failed to decode frame at " + timeUs + "us"));
+                    return;
+                }
+
+                //decoded frame isn't reused while it is delivered and stored, even if it is evicted meanwhile
+                mBitmapPool.onShown(exact);
+                mMemoryCache.put(mCacheKey, exact);
+
+                try {
+                    subscriber.onNext(exact);
+                    subscriber.onCompleted();
+
+                    mDiskCache.put(mCacheKey, mWidth, mHeight, exact);
+                } finally {
+                    mBitmapPool.onHidden(exact);
+                }
+            } catch (InterruptedException e) {
+                subscriber.onError(e);
+            }
+        }
+    }
+
+    /**
+     * Emits closest keyframe, marking thumbnail as loaded if keyframe is close enough to requested time
+     */
+    private class KeyframeOnSubscribe implements Observable.OnSubscribe<Thumbnail> {
+        private final ThumbnailCache mMemoryCache;
+        private final int mIndex;
+        private final long mCacheKey;
+        private final int mWidth;
+        private final int mHeight;
+        private final long mRefinementThresholdUs;
+        private final boolean[] mIsLoaded;
+        private final PinnedThumbnails mPinned;
+
+        KeyframeOnSubscribe(ThumbnailCache memoryCache, int index, long cacheKey, int width, int height, long refinementThresholdUs,
+                            boolean[] isLoaded, PinnedThumbnails pinned) {
+            mMemoryCache = memoryCache;
+            mIndex = index;
+            mCacheKey = cacheKey;
+            mWidth = width;
+            mHeight = height;
+            mRefinementThresholdUs = refinementThresholdUs;
+            mIsLoaded = isLoaded;
+            mPinned = pinned;
+        }
+
+        @Override
+        public void call(Subscriber<? super Thumbnail> subscriber) {
+            try {
+                if (subscriber.isUnsubscribed()) {
+                    return;
+                }
+
+                showKeyframe(subscriber);
+                subscriber.onCompleted();
+            } catch (InterruptedException e) {
+                subscriber.onError(e);
+            }
+        }
+
+        private void showKeyframe(Subscriber<? super Thumbnail> subscriber) throws InterruptedException {
+            long syncTimeUs = mSyncFrameLocator.closestSyncTimeUs(ThumbnailCache.timeUsFor(mCacheKey));
+
+            if (syncTimeUs < 0) {
+                return;
+            }
+
+            //keyframe is cached under its own time only, bitmap must not be shared between cache entries
+            long syncCacheKey = ThumbnailCache.keyFor(syncTimeUs);
+
+            Bitmap keyframe = mMemoryCache.getAndShow(syncCacheKey);
+
+            if (keyframe == null) {
+                keyframe = decodeFrame(mRetrieverPool, syncTimeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, mWidth, mHeight);
+
+                if (keyframe == null) {
+                    return;
+                }
+
+                mBitmapPool.onShown(keyframe);
+                mMemoryCache.put(syncCacheKey, keyframe);
+            }
+
+            mPinned.add(keyframe);
+
+            boolean isCloseEnough = Math.abs(syncTimeUs - ThumbnailCache.timeUsFor(mCacheKey)) <= mRefinementThresholdUs;
+            if (isCloseEnough) {
+                mIsLoaded[mIndex] = true;
+            }
+
+            subscriber.onNext(new Thumbnail(mIndex, keyframe, isCloseEnough));
+        }
+    }
+}
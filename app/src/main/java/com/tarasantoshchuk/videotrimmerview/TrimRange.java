@@ -0,0 +1,31 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+/**
+ * Trimmed part of video, in milliseconds
+ */
+public class TrimRange {
+    private final float mStartMs;
+    private final float mEndMs;
+    private final boolean mIsSettled;
+
+    TrimRange(float startMs, float endMs, boolean isSettled) {
+        mStartMs = startMs;
+        mEndMs = endMs;
+        mIsSettled = isSettled;
+    }
+
+    public float getStartMs() {
+        return mStartMs;
+    }
+
+    public float getEndMs() {
+        return mEndMs;
+    }
+
+    /**
+     * @return true if gesture that changed the range has ended
+     */
+    public boolean isSettled() {
+        return mIsSettled;
+    }
+}
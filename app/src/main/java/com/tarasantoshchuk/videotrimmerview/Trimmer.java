@@ -2,18 +2,34 @@ package com.tarasantoshchuk.videotrimmerview;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
 import android.widget.FrameLayout;
 
-import java.lang.ref.WeakReference;
-import java.util.HashMap;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import rx.Observable;
+import rx.Scheduler;
 import rx.Subscriber;
+import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
+import rx.exceptions.Exceptions;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
 import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
 
 public class Trimmer extends FrameLayout implements TrimmerControls.Callback, PlayerListener, TrimmerControls.Listener, ZoomableLayout.Callback {
     private static final int FRAMES_COUNT = 5;
@@ -21,17 +37,104 @@ public class Trimmer extends FrameLayout implements TrimmerControls.Callback, Pl
     private static final int MIN_TRIMMED_LENGTH_MS = 1000;
     private static final int MAX_TRIMMED_LENGTH_MS = 15000;
 
-    private final HashMap<Integer, WeakReference<Bitmap>> mBitmapCache = new HashMap<>();
+    private static final float PLACEHOLDER_ASPECT_RATIO = 16f / 9f;
+    private static final float DEFAULT_LONG_PRESS_ZOOM = 3;
 
-    private MediaMetadataRetriever mMetadataRetriever = new MediaMetadataRetriever();
+    private static final int PREVIEW_SCALE = 2;
+    private static final long PREVIEW_LINGER_MS = 600;
 
-    private OnTrimChangedListener mListener;
+    private VideoSource mVideoSource;
+    private Subscription mProbeSubscription;
+    private Subscription mPeaksSubscription;
+
+    private boolean mIsSceneDetectionEnabled;
+    private Subscription mScenesSubscription;
+    private SceneIndex mSceneIndex = SceneIndex.EMPTY;
+
+    private TrimSnapMode mTrimSnapMode = TrimSnapMode.NONE;
+    private Subscription mFrameIndexSubscription;
+    private FrameIndex mFrameIndex;
+
+    private ThumbnailLoader mThumbnailLoader;
+    private Subscription mPrefetchSubscription;
+
+    private int mThumbnailCacheSizeBytes = ThumbnailCache.defaultMaxSizeBytes();
+    private ThumbnailMode mThumbnailMode = ThumbnailMode.EXACT;
+
+    private final TrimmerMetrics mMetrics = new TrimmerMetrics();
+
+    private final PublishSubject<TrimRange> mTrimRangeSubject = PublishSubject.create();
+    private final Choreographer.FrameCallback mTrimRangeFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mIsTrimRangePending = false;
+            mTrimRangeSubject.onNext(new TrimRange(mTrimStartMs, mTrimEndMs, false));
+        }
+    };
+
+    //latest trim range, emitted once per frame
+    private boolean mHasTrimRange;
+    private boolean mIsTrimRangePending;
+    private float mTrimStartMs;
+    private float mTrimEndMs;
+    private final long[] mSnappedRangeUs = new long[2];
+
+    private Subscription mListenerSubscription;
+
+    //player reports are written from any thread, playhead is drawn once per frame on main thread
+    private final PositionSlot mPositionSlot = new PositionSlot();
+    private final AtomicBoolean mIsPlayheadScheduled = new AtomicBoolean();
+    //unlike View.post, main thread handler doesn't drop runnables posted while view is detached
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private float mDrawnPlayheadPositionMs = Float.NaN;
+    private final Runnable mSchedulePlayheadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mPlayheadFrameCallback);
+        }
+    };
+    private boolean mIsScrubPreviewEnabled;
+    private ScrubPreview mScrubPreview;
+    private float mPreviewPosition = -1;
+    private long mPreviewRequestTimeMs;
+
+    private final PreviewLane.Listener mPreviewListener = new PreviewLane.Listener() {
+        @Override
+        public void onPreviewDecoded(Bitmap bitmap, boolean isExact, long requestTimeMs) {
+            showPreview(bitmap, isExact, requestTimeMs);
+        }
+    };
+    private final Runnable mDismissPreviewRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dismissPreview();
+        }
+    };
+    private final Choreographer.FrameCallback mPreviewFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            //preview is drawn in this frame
+            mMetrics.onPreviewShown(SystemClock.uptimeMillis() - mPreviewRequestTimeMs);
+        }
+    };
+
+    private final Choreographer.FrameCallback mPlayheadFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            drawPlayhead(frameTimeNanos);
+        }
+    };
+    private OnVideoLoadedListener mVideoLoadedListener;
 
     private TrimmerControls mTrimmerControls;
 
+    private float mLongPressZoom = DEFAULT_LONG_PRESS_ZOOM;
+
     private float mVideoDurationMs;
-    private float mVideoAspectRatio;
+    private boolean mVideoHasAudio;
+    private float mVideoAspectRatio = PLACEHOLDER_ASPECT_RATIO;
     private ZoomableLayout mZoomableLayout;
+    private WaveformView mWaveformView;
 
     public Trimmer(Context context) {
         this(context, null);
@@ -51,17 +154,414 @@ public class Trimmer extends FrameLayout implements TrimmerControls.Callback, Pl
         mZoomableLayout = (ZoomableLayout) findViewById(R.id.frames);
         mZoomableLayout.setCallback(this);
 
+        mWaveformView = (WaveformView) findViewById(R.id.waveform);
+
         mTrimmerControls = (TrimmerControls) findViewById(R.id.controls);
         mTrimmerControls.setCallback(this);
         mTrimmerControls.setTrimListener(this);
-        mMetadataRetriever.setDataSource("/storage/emulated/0/video2.mp4");
+        mTrimmerControls.setMetrics(mMetrics);
+
+        //handles and frames are zoomed by the same clock, so they don't drift apart
+        ZoomClock zoomClock = new ZoomClock();
+        mZoomableLayout.setZoomClock(zoomClock);
+        mTrimmerControls.setZoomClock(zoomClock);
+
+        //controls can't be used until video duration is known
+        mTrimmerControls.setVisibility(INVISIBLE);
+    }
+
+    public void setVideoSource(String path) {
+        setVideoSource(VideoSource.fromPath(path));
+    }
+
+    public void setVideoSource(Uri uri) {
+        setVideoSource(VideoSource.fromUri(getContext(), uri));
+    }
+
+    public void setVideoSource(FileDescriptor fd) {
+        setVideoSource(fd, 0, VideoSource.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * Reads video from {@code length} bytes of file starting at {@code offset}, e.g. from
+     * {@link android.content.res.AssetFileDescriptor}. Trimmer reads its own duplicate of descriptor,
+     * so caller may close {@code fd} once this method returns.
+     *
+     * @throws IllegalArgumentException if {@code fd} can't be duplicated
+     */
+    public void setVideoSource(FileDescriptor fd, long offset, long length) {
+        setVideoSource(VideoSource.fromFileDescriptor(fd, offset, length));
+    }
+
+    /**
+     * Probes source on background thread, trimmer keeps placeholder size and shows no thumbnails
+     * until its metadata is read
+     */
+    private void setVideoSource(VideoSource videoSource) {
+        releaseVideoSource();
+
+        mVideoSource = videoSource;
+        mTrimmerControls.setVisibility(INVISIBLE);
+
+        probeVideoSource();
+    }
+
+    /**
+     * Stops all work on current video and releases it, e.g. closes duplicate of its descriptor.
+     * Trimmer shows no video until another source is set.
+     */
+    public void releaseVideoSource() {
+        cancelProbe();
+        cancelPrefetch();
+        cancelPeaks();
+        cancelSceneDetection();
+        cancelFrameIndex();
+        dismissPreview();
+        releaseThumbnailLoader();
+
+        mSceneIndex = SceneIndex.EMPTY;
+        mFrameIndex = null;
+
+        //range of previous video must be neither emitted nor exported
+        if (mIsTrimRangePending) {
+            Choreographer.getInstance().removeFrameCallback(mTrimRangeFrameCallback);
+            mIsTrimRangePending = false;
+        }
+
+        mHasTrimRange = false;
+
+        mWaveformView.setPeaks(null);
+
+        if (mVideoSource != null) {
+            //calls that still read source on background threads keep it open until they return
+            mVideoSource.release();
+            mVideoSource = null;
+        }
+    }
+
+    private void probeVideoSource() {
+        final VideoSource videoSource = mVideoSource;
+
+        mProbeSubscription = Observable.fromCallable(new Callable<VideoMetadata>() {
+            @Override
+            public VideoMetadata call() {
+                return VideoMetadata.probe(videoSource);
+            }
+        })
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action1<VideoMetadata>() {
+                    @Override
+                    public void call(VideoMetadata videoMetadata) {
+                        onVideoMetadataLoaded(videoMetadata);
+                    }
+                }, new Action1<Throwable>() {
+                    @Override
+                    public void call(Throwable throwable) {
+                        Log.w("Trimmer", "failed to open video source", throwable);
+                    }
+                });
+    }
+
+    /**
+     * Decodes audio peaks of current source on background thread, unless they are cached
+     */
+    private void loadPeaks() {
+        if (!AudioPeakDecoder.isSupported() || !mVideoHasAudio) {
+            return;
+        }
+
+        final VideoSource videoSource = mVideoSource;
+        final File cacheDir = getContext().getCacheDir();
+
+        mPeaksSubscription = Observable.fromCallable(new Callable<PeakPyramid>() {
+            @Override
+            public PeakPyramid call() throws IOException {
+                return PeakCache.load(cacheDir, videoSource);
+            }
+        })
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action1<PeakPyramid>() {
+                    @Override
+                    public void call(PeakPyramid peaks) {
+                        mPeaksSubscription = null;
+                        mWaveformView.setPeaks(peaks);
+                    }
+                }, new Action1<Throwable>() {
+                    @Override
+                    public void call(Throwable throwable) {
+                        mPeaksSubscription = null;
+                        Log.w("Trimmer", "failed to decode audio peaks", throwable);
+                    }
+                });
+    }
+
+    /**
+     * Snaps thumbnails to frames of scenes that start near them, and released trim handles
+     * to scene cuts near them. Scenes are detected on background threads, thumbnails are
+     * reloaded once detection finishes.
+     */
+    public void setSceneDetectionEnabled(boolean isEnabled) {
+        if (mIsSceneDetectionEnabled == isEnabled) {
+            return;
+        }
+
+        mIsSceneDetectionEnabled = isEnabled;
+
+        if (isEnabled && mThumbnailLoader != null) {
+            detectScenes();
+        } else if (!isEnabled) {
+            cancelSceneDetection();
+            mSceneIndex = SceneIndex.EMPTY;
+            mZoomableLayout.reloadThumbnails();
+        }
+    }
+
+    private void detectScenes() {
+        if (!SceneDetector.isSupported()) {
+            return;
+        }
+
+        cancelSceneDetection();
+
+        long durationUs = (long) (1000 * mVideoDurationMs);
+
+        mScenesSubscription = SceneDetector.detect(mVideoSource, durationUs, Runtime.getRuntime().availableProcessors(), Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Subscriber<Long>() {
+                    @Override
+                    public void onNext(Long cutUs) {
+                        mSceneIndex = mSceneIndex.withCut(cutUs);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        mScenesSubscription = null;
+                        mZoomableLayout.reloadThumbnails();
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        mScenesSubscription = null;
+                        Log.w("Trimmer", "failed to detect scenes", e);
+                    }
+                });
+    }
+
+    private void cancelSceneDetection() {
+        if (mScenesSubscription != null) {
+            mScenesSubscription.unsubscribe();
+            mScenesSubscription = null;
+        }
+    }
+
+    @Override
+    public float snapPosition(float position, float maxDistance) {
+        if (mIsSceneDetectionEnabled) {
+            long cutUs = mSceneIndex.nearestCutUs((long) (1000 * pixelToSecondPosition(position)), (long) (1000 * pixelToSecondPosition(maxDistance)));
+
+            if (cutUs != SceneIndex.NO_CUT) {
+                return secondToPixelPosition(cutUs / 1000f);
+            }
+        }
+
+        return position;
+    }
+
+    @Override
+    public float trimStartPosition() {
+        return mVideoDurationMs > 0 ? secondToPixelPosition(mTrimStartMs) : 0;
+    }
+
+    @Override
+    public float trimEndPosition() {
+        return mVideoDurationMs > 0 ? secondToPixelPosition(mTrimEndMs) : getWidth();
+    }
+
+    /**
+     * Snaps trim handles to frames or to sync frames, so reported trim range starts and ends
+     * at frame boundaries. Frame timestamps are read from sample tables of mp4 sources on background
+     * thread, other sources aren't snapped.
+     */
+    public void setTrimSnapMode(TrimSnapMode trimSnapMode) {
+        mTrimSnapMode = trimSnapMode;
+
+        if (trimSnapMode != TrimSnapMode.NONE && mFrameIndex == null && mThumbnailLoader != null) {
+            loadFrameIndex();
+        }
+    }
+
+    private void loadFrameIndex() {
+        if (mFrameIndexSubscription != null) {
+            return;
+        }
+
+        final VideoSource videoSource = mVideoSource;
+
+        mFrameIndexSubscription = Observable.fromCallable(new Callable<FrameIndex>() {
+            @Override
+            public FrameIndex call() throws IOException {
+                return FrameIndex.load(videoSource);
+            }
+        })
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action1<FrameIndex>() {
+                    @Override
+                    public void call(FrameIndex frameIndex) {
+                        mFrameIndexSubscription = null;
+                        mFrameIndex = frameIndex;
+                    }
+                }, new Action1<Throwable>() {
+                    @Override
+                    public void call(Throwable throwable) {
+                        mFrameIndexSubscription = null;
+                        mFrameIndex = FrameIndex.EMPTY;
+                        Log.w("Trimmer", "failed to read frame timestamps", throwable);
+                    }
+                });
+    }
+
+    private void cancelFrameIndex() {
+        if (mFrameIndexSubscription != null) {
+            mFrameIndexSubscription.unsubscribe();
+            mFrameIndexSubscription = null;
+        }
+    }
+
+    private void cancelPeaks() {
+        if (mPeaksSubscription != null) {
+            mPeaksSubscription.unsubscribe();
+            mPeaksSubscription = null;
+        }
+    }
+
+    private void cancelProbe() {
+        if (mProbeSubscription != null) {
+            mProbeSubscription.unsubscribe();
+            mProbeSubscription = null;
+        }
+    }
+
+    private void onVideoMetadataLoaded(VideoMetadata videoMetadata) {
+        mProbeSubscription = null;
+
+        float previousAspectRatio = mVideoAspectRatio;
+
+        mVideoAspectRatio = videoMetadata.aspectRatio();
+        mVideoDurationMs = videoMetadata.mDurationMs;
+        mVideoHasAudio = videoMetadata.mHasAudio;
+        mWaveformView.setVideoDurationMs(mVideoDurationMs);
+
+        mThumbnailLoader = createThumbnailLoader();
+        mTrimmerControls.setVisibility(VISIBLE);
+
+        resetTrimRange();
+
+        loadPeaks();
+
+        if (mIsSceneDetectionEnabled) {
+            detectScenes();
+        }
+
+        if (mTrimSnapMode != TrimSnapMode.NONE) {
+            loadFrameIndex();
+        }
+
+        if (mVideoAspectRatio != previousAspectRatio) {
+            //frames are bound once new size is laid out
+            requestLayout();
+        } else {
+            mZoomableLayout.reloadThumbnails();
+        }
+
+        if (mVideoLoadedListener != null) {
+            mVideoLoadedListener.onVideoLoaded(mVideoDurationMs);
+        }
+    }
+
+    private ThumbnailLoader createThumbnailLoader() {
+        return new ThumbnailLoader(getContext().getCacheDir(), mVideoSource, mThumbnailCacheSizeBytes, mThumbnailMode, mMetrics);
+    }
+
+    /**
+     * Releases loader on background thread, so pending decodes and native resources
+     * of previous source don't hold up main thread
+     */
+    private void releaseThumbnailLoader() {
+        if (mThumbnailLoader == null) {
+            return;
+        }
+
+        final ThumbnailLoader thumbnailLoader = mThumbnailLoader;
+        mThumbnailLoader = null;
+
+        final Scheduler.Worker worker = Schedulers.io().createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                thumbnailLoader.release();
+                worker.unsubscribe();
+            }
+        });
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        //frames of playhead were cancelled on detach
+        schedulePlayhead();
+
+        if (mThumbnailLoader != null && mThumbnailLoader.isReleased()) {
+            mThumbnailLoader = createThumbnailLoader();
+
+            if (!mWaveformView.hasPeaks()) {
+                //decoding of peaks was cancelled on detach
+                loadPeaks();
+            }
+
+            if (mIsSceneDetectionEnabled) {
+                //detection was cancelled on detach, cuts found so far are found again
+                detectScenes();
+            }
+
+            if (mTrimSnapMode != TrimSnapMode.NONE && mFrameIndex == null) {
+                //reading of frame timestamps was cancelled on detach
+                loadFrameIndex();
+            }
+        } else if (mThumbnailLoader == null && mVideoSource != null && mProbeSubscription == null) {
+            //probe was cancelled on detach
+            probeVideoSource();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        cancelProbe();
+        cancelPrefetch();
+        cancelPeaks();
+        cancelSceneDetection();
+        cancelFrameIndex();
 
-        float videoHeight = Float.parseFloat(mMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
-        float videoWidth = Float.parseFloat(mMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+        dismissPreview();
+        Choreographer.getInstance().removeFrameCallback(mPreviewFrameCallback);
 
-        mVideoAspectRatio = videoWidth / videoHeight;
+        mMainHandler.removeCallbacks(mSchedulePlayheadRunnable);
+        Choreographer.getInstance().removeFrameCallback(mPlayheadFrameCallback);
+        mIsPlayheadScheduled.set(false);
+        mDrawnPlayheadPositionMs = Float.NaN;
 
-        mVideoDurationMs = Integer.parseInt(mMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+        if (mIsTrimRangePending) {
+            Choreographer.getInstance().removeFrameCallback(mTrimRangeFrameCallback);
+            mIsTrimRangePending = false;
+        }
+
+        if (mThumbnailLoader != null) {
+            mThumbnailLoader.release();
+        }
     }
 
     @Override
@@ -78,8 +578,108 @@ public class Trimmer extends FrameLayout implements TrimmerControls.Callback, Pl
         super.onMeasure(MeasureSpec.makeMeasureSpec(widthSize, MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(heightSize, MeasureSpec.EXACTLY));
     }
 
-    public void setOnTrimChangedListener(OnTrimChangedListener listener) {
-        mListener = listener;
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        //cached thumbnails are scaled to previous size
+        if (mThumbnailLoader != null) {
+            mThumbnailLoader.clearMemoryCache();
+        }
+
+        //playhead is drawn at position scaled to previous width
+        mDrawnPlayheadPositionMs = Float.NaN;
+        schedulePlayhead();
+    }
+
+    /**
+     * Sets the memory budget for decoded thumbnails, previously cached thumbnails are dropped
+     */
+    public void setThumbnailCacheSize(int maxSizeBytes) {
+        mThumbnailCacheSizeBytes = maxSizeBytes;
+
+        if (mThumbnailLoader != null) {
+            mThumbnailLoader.setMemoryCacheSize(maxSizeBytes);
+        }
+    }
+
+    public int getThumbnailCacheHitCount() {
+        return mThumbnailLoader != null ? mThumbnailLoader.memoryCacheHitCount() : 0;
+    }
+
+    public int getThumbnailCacheMissCount() {
+        return mThumbnailLoader != null ? mThumbnailLoader.memoryCacheMissCount() : 0;
+    }
+
+    public void setOnTrimChangedListener(final OnTrimChangedListener listener) {
+        if (mListenerSubscription != null) {
+            mListenerSubscription.unsubscribe();
+            mListenerSubscription = null;
+        }
+
+        if (listener != null) {
+            mListenerSubscription = trimRangeChanges().subscribe(new Action1<TrimRange>() {
+                @Override
+                public void call(TrimRange trimRange) {
+                    listener.onTrimChanged(trimRange.getStartMs(), trimRange.getEndMs());
+                }
+            });
+        }
+    }
+
+    /**
+     * Emits on main thread at most once per display frame, with latest trim range only, and once
+     * more with settled range when gesture ends. Slow subscribers get latest range they missed.
+     */
+    public Observable<TrimRange> trimRangeChanges() {
+        return mTrimRangeSubject.onBackpressureLatest();
+    }
+
+    /**
+     * Copies trimmed part of mp4 source into {@code destination} without re-encoding. Copy starts
+     * at the key frame at or before trim start, so it may be longer than the trim range.
+     * Samples are copied on io scheduler until unsubscribed, progress from 0 to 1 is emitted on main thread.
+     */
+    public Observable<Float> exportTrimmed(final File destination) {
+        if (mVideoSource == null || !mHasTrimRange) {
+            return Observable.error(new IllegalStateException("video isn't loaded"));
+        }
+
+        final VideoSource videoSource = mVideoSource;
+        //rounded, so that range snapped to sync frame doesn't start a microsecond before it
+        final long startUs = Math.round(1000 * mTrimStartMs);
+        final long endUs = Math.round(1000 * mTrimEndMs);
+
+        return Observable.using(new Func0<FileInputStream>() {
+            @Override
+            public FileInputStream call() {
+                try {
+                    return videoSource.openInputStream();
+                } catch (IOException e) {
+                    throw Exceptions.propagate(e);
+                }
+            }
+        }, new Func1<FileInputStream, Observable<Float>>() {
+            @Override
+            public Observable<Float> call(FileInputStream input) {
+                return Mp4TrimExporter.export(input.getChannel(), videoSource.startOffset(), videoSource.length(), destination, startUs, endUs);
+            }
+        }, new Action1<FileInputStream>() {
+            @Override
+            public void call(FileInputStream input) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+        })
+                .subscribeOn(Schedulers.io())
+                .onBackpressureLatest()
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    public void setOnVideoLoadedListener(OnVideoLoadedListener listener) {
+        mVideoLoadedListener = listener;
     }
 
     @Override
@@ -94,77 +694,417 @@ public class Trimmer extends FrameLayout implements TrimmerControls.Callback, Pl
 
     @Override
     public void onPause() {
-        mTrimmerControls.hideVideoPositionIndicator();
+        mPositionSlot.writePaused();
+        schedulePlayhead();
     }
 
     @Override
     public void onPositionChange(float currentPosition) {
-        mTrimmerControls.updateVideoPositionIndicator(currentPosition / mVideoDurationMs * getWidth());
+        mPositionSlot.writePosition(currentPosition);
+        schedulePlayhead();
+    }
+
+    @Override
+    public void onPlaybackRateChange(float rate) {
+        mPositionSlot.writeRate(rate);
+    }
+
+    private void schedulePlayhead() {
+        if (mIsPlayheadScheduled.compareAndSet(false, true)) {
+            mMainHandler.post(mSchedulePlayheadRunnable);
+        }
+    }
+
+    private void drawPlayhead(long frameTimeNanos) {
+        float positionMs = mPositionSlot.positionAt(frameTimeNanos);
+
+        if (Float.isNaN(positionMs)) {
+            mTrimmerControls.hideVideoPositionIndicator();
+            mDrawnPlayheadPositionMs = Float.NaN;
+            stopPlayhead(frameTimeNanos);
+            return;
+        }
+
+        //paused player, or player that stopped reporting for longer than extrapolation limit
+        if (positionMs == mDrawnPlayheadPositionMs) {
+            stopPlayhead(frameTimeNanos);
+            return;
+        }
+
+        if (mVideoDurationMs > 0) {
+            mTrimmerControls.updateVideoPositionIndicator(Math.min(positionMs, mVideoDurationMs) / mVideoDurationMs * getWidth());
+        }
+
+        mDrawnPlayheadPositionMs = positionMs;
+        Choreographer.getInstance().postFrameCallback(mPlayheadFrameCallback);
+    }
+
+    /**
+     * Stops frames of playhead until the next player report
+     */
+    private void stopPlayhead(long frameTimeNanos) {
+        mIsPlayheadScheduled.set(false);
+
+        //position may have been reported after it was read, while frames were still scheduled
+        float positionMs = mPositionSlot.positionAt(frameTimeNanos);
+
+        if (Float.isNaN(positionMs) ? !Float.isNaN(mDrawnPlayheadPositionMs) : positionMs != mDrawnPlayheadPositionMs) {
+            schedulePlayhead();
+        }
     }
 
     @Override
     public void onTrimPositionChanged(float left, float right) {
-        mListener.onTrimChanged(left / getWidth() * mVideoDurationMs, right / getWidth() * mVideoDurationMs);
+        float startMs = pixelToSecondPosition(left);
+        float endMs = pixelToSecondPosition(right);
+
+        if (mTrimSnapMode != TrimSnapMode.NONE && mFrameIndex != null) {
+            mSnappedRangeUs[0] = Math.round(1000 * startMs);
+            mSnappedRangeUs[1] = Math.round(1000 * endMs);
+
+            //range that can't be snapped within limits, e.g. of video shorter than the shortest range, stays exact
+            if (mFrameIndex.snapRange(mSnappedRangeUs, mTrimSnapMode == TrimSnapMode.KEYFRAME,
+                    1000L * MIN_TRIMMED_LENGTH_MS, 1000L * MAX_TRIMMED_LENGTH_MS)) {
+                startMs = mSnappedRangeUs[0] / 1000f;
+                endMs = mSnappedRangeUs[1] / 1000f;
+            }
+        }
+
+        if (mHasTrimRange && startMs == mTrimStartMs && endMs == mTrimEndMs) {
+            return;
+        }
+
+        mTrimStartMs = startMs;
+        mTrimEndMs = endMs;
+        mHasTrimRange = true;
+
+        if (!mIsTrimRangePending) {
+            mIsTrimRangePending = true;
+            Choreographer.getInstance().postFrameCallback(mTrimRangeFrameCallback);
+        }
+    }
+
+    /**
+     * Moves handles to their initial positions at the start of video, range is as long as
+     * video or the longest allowed range
+     */
+    private void resetTrimRange() {
+        //controls place handles at initial positions on layout
+        mTrimmerControls.requestLayout();
+
+        mTrimStartMs = 0;
+        mTrimEndMs = Math.min(mVideoDurationMs, MAX_TRIMMED_LENGTH_MS);
+        mHasTrimRange = true;
+
+        settleTrimRange();
+    }
+
+    private void settleTrimRange() {
+        if (mIsTrimRangePending) {
+            Choreographer.getInstance().removeFrameCallback(mTrimRangeFrameCallback);
+            mIsTrimRangePending = false;
+        }
+
+        if (mHasTrimRange) {
+            mTrimRangeSubject.onNext(new TrimRange(mTrimStartMs, mTrimEndMs, true));
+        }
+    }
+
+    @Override
+    public float longPressZoom() {
+        return mLongPressZoom;
     }
 
     @Override
     public void onLongClick(float pivotX) {
-        mZoomableLayout.animateViews(pivotX);
+        mZoomableLayout.zoomTo(mLongPressZoom, pivotX);
     }
 
     @Override
     public void onLongClickRelease() {
-        mZoomableLayout.revertAnimation();
+        mZoomableLayout.resetZoom();
+    }
+
+    /**
+     * Sets zoom of frames and trim controls while trim control is long pressed
+     */
+    public void setLongPressZoom(float zoom) {
+        mLongPressZoom = Math.max(1, zoom);
+        prefetchZoomedFrames();
+    }
+
+    public void setFilmstripRenderMode(ZoomableLayout.RenderMode renderMode) {
+        mZoomableLayout.setRenderMode(renderMode);
+    }
+
+    /**
+     * Sets zoom levels that get thumbnails of their own density, see {@link ZoomableLayout#setZoomLevels(int...)}
+     */
+    public void setZoomLevels(int... zoomLevels) {
+        mZoomableLayout.setZoomLevels(zoomLevels);
+        prefetchZoomedFrames();
     }
 
     @Override
-    public Observable<Bitmap> getBitmapAt(final float pixelPosition, int mainFrameIndex) {
-        return new BitmapObservable(pixelPosition, mainFrameIndex)
-                .subscribeOn(Schedulers.computation())
-                .observeOn(AndroidSchedulers.mainThread());
+    public void onDragStarted() {
+        if (mThumbnailLoader != null) {
+            mThumbnailLoader.pausePrefetch();
+        }
     }
 
-    private class BitmapObservable extends Observable<Bitmap> {
-        public BitmapObservable(final float pixelPosition, final int mainFrameIndex) {
-            super(new Observable.OnSubscribe<Bitmap>() {
-                @Override
-                public void call(Subscriber<? super Bitmap> subscriber) {
-                    Log.d("DEBUG", "pixel position " + pixelPosition + ", mainFrameIndex " + mainFrameIndex);
-                    boolean isMainFrame = mainFrameIndex != -1;
+    @Override
+    public void onDragFinished(boolean isCancelled) {
+        if (mThumbnailLoader != null) {
+            mThumbnailLoader.resumePrefetch();
+        }
 
-                    if (isMainFrame) {
-                        WeakReference<Bitmap> bitmapRef = mBitmapCache.get(mainFrameIndex);
+        if (isCancelled) {
+            dismissPreview();
+        } else if (mPreviewPosition >= 0 && mThumbnailLoader != null) {
+            //resting position always gets exact frame
+            mThumbnailLoader.requestPreview((long) (1000 * pixelToSecondPosition(mPreviewPosition)), previewWidth(), previewHeight(), true, mPreviewListener);
+        }
 
-                        if (bitmapRef != null && bitmapRef.get() != null) {
-                            returnBitmap(subscriber, mBitmapCache.get(mainFrameIndex));
-                            return;
-                        }
-                    }
+        mPreviewPosition = -1;
+
+        settleTrimRange();
+    }
 
-                    Bitmap raw = mMetadataRetriever.getFrameAtTime((long) (1000 * pixelToSecondPosition(pixelPosition)), MediaMetadataRetriever.OPTION_CLOSEST);
-                    Bitmap scaled = Bitmap.createScaledBitmap(raw, getWidth() / FRAMES_COUNT, getHeight(), false);
+    @Override
+    public void onHandleMoved(float position, float x) {
+        if (!mIsScrubPreviewEnabled || mThumbnailLoader == null) {
+            return;
+        }
 
-                    WeakReference<Bitmap> bitmapRef = new WeakReference<>(scaled);
+        removeCallbacks(mDismissPreviewRunnable);
 
-                    if (isMainFrame) {
-                        mBitmapCache.put(mainFrameIndex, bitmapRef);
-                    }
+        if (mScrubPreview == null) {
+            mScrubPreview = new ScrubPreview(getContext());
+        }
 
-                    returnBitmap(subscriber, bitmapRef);
-                }
+        mScrubPreview.show(this, x, previewWidth(), previewHeight());
 
-                private void returnBitmap(Subscriber<? super Bitmap> subscriber, WeakReference<Bitmap> bitmapWeakReference) {
-                    subscriber.onNext(bitmapWeakReference.get());
-                    subscriber.onCompleted();
-                }
-            });
+        mPreviewPosition = position;
+        mThumbnailLoader.requestPreview((long) (1000 * pixelToSecondPosition(position)), previewWidth(), previewHeight(), false, mPreviewListener);
+    }
+
+    /**
+     * Shows enlarged frame at dragged trim handle position while handle is dragged
+     */
+    public void setScrubPreviewEnabled(boolean isEnabled) {
+        mIsScrubPreviewEnabled = isEnabled;
+
+        if (!isEnabled) {
+            dismissPreview();
         }
     }
 
+    private void showPreview(Bitmap bitmap, boolean isExact, long requestTimeMs) {
+        if (mScrubPreview == null || !mScrubPreview.isShowing() || mThumbnailLoader == null) {
+            return;
+        }
+
+        Bitmap previousBitmap = mScrubPreview.setBitmap(bitmap);
+
+        if (previousBitmap != null) {
+            mThumbnailLoader.recyclePreview(previousBitmap);
+        }
+
+        mPreviewRequestTimeMs = requestTimeMs;
+        Choreographer.getInstance().removeFrameCallback(mPreviewFrameCallback);
+        Choreographer.getInstance().postFrameCallback(mPreviewFrameCallback);
+
+        if (isExact) {
+            postDelayed(mDismissPreviewRunnable, PREVIEW_LINGER_MS);
+        }
+    }
+
+    private void dismissPreview() {
+        removeCallbacks(mDismissPreviewRunnable);
+
+        if (mScrubPreview == null) {
+            return;
+        }
+
+        Bitmap bitmap = mScrubPreview.dismiss();
+
+        if (bitmap != null && mThumbnailLoader != null) {
+            mThumbnailLoader.recyclePreview(bitmap);
+        }
+    }
+
+    private int previewWidth() {
+        return getWidth() / FRAMES_COUNT * PREVIEW_SCALE;
+    }
+
+    private int previewHeight() {
+        return getHeight() * PREVIEW_SCALE;
+    }
+
+    @Override
+    public Observable<Thumbnail> getThumbnailsAt(float[] pixelPositions, float pixelSpan, boolean isMainStrip) {
+        if (mThumbnailLoader == null) {
+            //frames are reloaded once source is probed
+            return Observable.empty();
+        }
+
+        long[] timesUs = pixelToTimeUs(pixelPositions);
+
+        if (mIsSceneDetectionEnabled) {
+            long spanUs = (long) (1000 * pixelToSecondPosition(pixelSpan));
+
+            for (int i = 0; i < timesUs.length; i++) {
+                timesUs[i] = mSceneIndex.representativeTimeUs(timesUs[i], spanUs);
+            }
+        }
+
+        Observable<Thumbnail> thumbnails = mThumbnailLoader.loadAll(timesUs, getWidth() / FRAMES_COUNT, getHeight(), refinementThresholdUs());
+
+        if (isMainStrip) {
+            thumbnails = thumbnails.doOnNext(new MainStripTracker(pixelPositions.length));
+        }
+
+        return thumbnails;
+    }
+
+    @Override
+    public void onBitmapShown(Bitmap bitmap) {
+        if (mThumbnailLoader != null) {
+            mThumbnailLoader.onThumbnailShown(bitmap);
+        }
+    }
+
+    @Override
+    public void onBitmapHidden(Bitmap bitmap) {
+        if (mThumbnailLoader != null) {
+            mThumbnailLoader.onThumbnailHidden(bitmap);
+        }
+    }
+
+    @Override
+    public void onZoomChanged(float zoom, float pivotX) {
+        mWaveformView.setZoom(zoom, pivotX);
+    }
+
+    public void setThumbnailMode(ThumbnailMode thumbnailMode) {
+        mThumbnailMode = thumbnailMode;
+
+        if (mThumbnailLoader != null) {
+            mThumbnailLoader.setThumbnailMode(thumbnailMode);
+        }
+    }
+
+    public TrimmerMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    private class MainStripTracker implements Action1<Thumbnail> {
+        private final long mRequestTimeMs = SystemClock.uptimeMillis();
+        private final boolean[] mIsShown;
+
+        private int mFramesShown;
+        private int mExactFramesShown;
+
+        MainStripTracker(int framesCount) {
+            mIsShown = new boolean[framesCount];
+        }
+
+        @Override
+        public void call(Thumbnail thumbnail) {
+            long stripTimeMs = SystemClock.uptimeMillis() - mRequestTimeMs;
+
+            if (!mIsShown[thumbnail.mIndex] && ++mFramesShown == mIsShown.length) {
+                mMetrics.setKeyframeStripTimeMs(stripTimeMs);
+            }
+
+            if (thumbnail.mIsExact && ++mExactFramesShown == mIsShown.length) {
+                mMetrics.setExactStripTimeMs(stripTimeMs);
+                prefetchZoomedFrames();
+            }
+
+            mIsShown[thumbnail.mIndex] = true;
+        }
+    }
+
+    /**
+     * Decodes frames shown only when zoomed in ahead of time, so zoom animation ends with them
+     * already in cache
+     */
+    private void prefetchZoomedFrames() {
+        cancelPrefetch();
+
+        if (mThumbnailLoader == null) {
+            return;
+        }
+
+        mPrefetchSubscription = mThumbnailLoader.prefetch(pixelToTimeUs(mZoomableLayout.getFramePositions(mLongPressZoom)), getWidth() / FRAMES_COUNT, getHeight());
+    }
+
+    private void cancelPrefetch() {
+        if (mPrefetchSubscription != null) {
+            mPrefetchSubscription.unsubscribe();
+            mPrefetchSubscription = null;
+        }
+    }
+
+    private long refinementThresholdUs() {
+        //a keyframe is good enough if it is within a quarter of time span covered by zoomed in thumbnail
+        long zoomedThumbnailSpanUs = (long) (1000 * mVideoDurationMs / (FRAMES_COUNT * mLongPressZoom));
+        return Math.max(ThumbnailCache.KEY_QUANTUM_US, zoomedThumbnailSpanUs / 4);
+    }
+
+    /**
+     * Strategy of decoding thumbnails that are not cached yet
+     */
+    public enum ThumbnailMode {
+        /**
+         * Decode exact frame at each thumbnail position
+         */
+        EXACT,
+        /**
+         * Show closest keyframe right away, then replace it with exact frame if keyframe is too far
+         * from thumbnail position
+         */
+        PROGRESSIVE
+    }
+
+    public enum TrimSnapMode {
+        /**
+         * Report trim range as handles are positioned
+         */
+        NONE,
+        /**
+         * Snap both handles to closest frame boundaries
+         */
+        FRAME,
+        /**
+         * Snap start handle to closest keyframe, so trimmed part can be cut without re-encoding,
+         * and end handle to closest frame boundary
+         */
+        KEYFRAME
+    }
+
     public interface OnTrimChangedListener {
         void onTrimChanged(float startTime, float endTime);
     }
 
+    public interface OnVideoLoadedListener {
+        /**
+         * Called on main thread once metadata of video source is read
+         */
+        void onVideoLoaded(float durationMs);
+    }
+
+    private long[] pixelToTimeUs(float[] pixelPositions) {
+        long[] timesUs = new long[pixelPositions.length];
+
+        for (int i = 0; i < pixelPositions.length; i++) {
+            timesUs[i] = (long) (1000 * pixelToSecondPosition(pixelPositions[i]));
+        }
+
+        return timesUs;
+    }
+
     private float pixelToSecondPosition(float pixelPosition) {
         return pixelPosition / (float)getWidth() * mVideoDurationMs;
     }
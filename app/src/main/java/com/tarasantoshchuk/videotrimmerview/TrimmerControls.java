@@ -3,6 +3,7 @@ package com.tarasantoshchuk.videotrimmerview;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.support.annotation.NonNull;
 import android.util.AttributeSet;
@@ -15,16 +16,17 @@ import android.widget.Toast;
 public class TrimmerControls extends LinearLayout {
     private static final int CIRCLE_RADIUS_DP = 15;
     private static final int BORDER_WIDTH_DP = 5;
+    private static final int SNAP_DISTANCE_DP = 12;
 
-    private static final int ANIMATION_DURATION_MS = 300_000_000;
-    private static final int LONG_PRESS_EXPANSION = 3;
-    private final Runnable mInvalidateRunnable = new Runnable() {
+    private final ZoomClock.Listener mZoomFrameListener = new ZoomClock.Listener() {
         @Override
-        public void run() {
-            invalidate();
+        public void onZoomFrame(float fraction) {
+            TrimmerControls.this.onZoomFrame(fraction);
         }
     };
 
+    private ZoomClock mZoomClock = new ZoomClock();
+
     private float mLeftRectPosition;
     private float mRightRectPosition;
 
@@ -36,6 +38,7 @@ public class TrimmerControls extends LinearLayout {
 
     private float mCircleRadius;
     private float mBorderWidth;
+    private float mSnapDistance;
 
     private final Paint mFramePaint = new Paint();
     private final Paint mControllersPaint = new Paint();
@@ -43,13 +46,21 @@ public class TrimmerControls extends LinearLayout {
 
     private final RectF mBorderRectangle = new RectF();
 
+    //bounds of what was last drawn, only union of old and new bounds is invalidated on change
+    private final Rect mDrawnLeftHandleBounds = new Rect();
+    private final Rect mDrawnRightHandleBounds = new Rect();
+    private final Rect mDrawnPositionBounds = new Rect();
+    private final Rect mBounds = new Rect();
+    private final Rect mDirtyRect = new Rect();
+
+    private TrimmerMetrics mMetrics = new TrimmerMetrics();
+
     private Callback mCallback;
     private Listener mListener;
 
     DragGestureDetector mDetector;
     private GestureTarget mGestureTarget;
 
-    private long mAnimationStartTime;
     private float mAnimationStartLeft;
     private float mAnimationStartRight;
     private float mAnimationEndLeft;
@@ -58,6 +69,7 @@ public class TrimmerControls extends LinearLayout {
     private boolean mIsAnimating;
     private boolean mIsInLongPressMode;
     private float mLongPressModePivotX;
+    private float mLongPressZoom = 1;
 
     public TrimmerControls(Context context) {
         this(context, null);
@@ -80,8 +92,22 @@ public class TrimmerControls extends LinearLayout {
         mListener = listener;
     }
 
+    void setMetrics(TrimmerMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Makes long press animations advance together with other animations of {@code zoomClock}
+     */
+    void setZoomClock(ZoomClock zoomClock) {
+        mZoomClock.removeListener(mZoomFrameListener);
+        mZoomClock = zoomClock;
+        mZoomClock.addListener(mZoomFrameListener);
+    }
+
     private void init(Context context) {
         setWillNotDraw(false);
+        mZoomClock.addListener(mZoomFrameListener);
 
         initDimens(context);
         initPaints();
@@ -93,6 +119,7 @@ public class TrimmerControls extends LinearLayout {
         mMinLeftRectPosition = 0;
         mBorderWidth = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, BORDER_WIDTH_DP, displayMetrics);
         mCircleRadius = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, CIRCLE_RADIUS_DP, displayMetrics);
+        mSnapDistance = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, SNAP_DISTANCE_DP, displayMetrics);
     }
 
     private void initGestureDetector(Context context) {
@@ -100,12 +127,22 @@ public class TrimmerControls extends LinearLayout {
             @Override
             public boolean onDown(MotionEvent e) {
                 mGestureTarget = getGestureTarget(e.getX(), e.getY());
+
+                if (mGestureTarget != GestureTarget.NONE) {
+                    mListener.onDragStarted();
+                }
+
                 return true;
             }
 
             @Override
             public void onUp() {
-                TrimmerControls.this.onUp();
+                finishGesture(false);
+            }
+
+            @Override
+            public void onCancel() {
+                finishGesture(true);
             }
 
             @Override
@@ -127,7 +164,12 @@ public class TrimmerControls extends LinearLayout {
 
                 notifyTrimPositionChanged();
 
-                invalidate();
+                if (mGestureTarget != GestureTarget.FRAME) {
+                    float handleX = mGestureTarget == GestureTarget.LEFT_CONTROL ? mLeftRectPosition : mRightRectPosition;
+                    mListener.onHandleMoved(unzoomedPosition(handleX), handleX);
+                }
+
+                invalidateHandles();
                 return true;
             }
 
@@ -154,35 +196,70 @@ public class TrimmerControls extends LinearLayout {
                 return;
         }
 
+        if (!mIsInLongPressMode) {
+            mLongPressZoom = mCallback.longPressZoom();
+        }
+
         startLongPressAnimation(pivotPoint);
         TrimmerControls.this.onLongPress(pivotPoint);
     }
 
     private void notifyTrimPositionChanged() {
-        float leftPosition;
-        float rightPosition;
+        mListener.onTrimPositionChanged(unzoomedPosition(mLeftRectPosition), unzoomedPosition(mRightRectPosition));
+    }
 
-        if (mIsInLongPressMode) {
-            leftPosition = mLongPressModePivotX + (mLeftRectPosition - mLongPressModePivotX) / (float) LONG_PRESS_EXPANSION;
-            rightPosition = mLongPressModePivotX + (mRightRectPosition - mLongPressModePivotX) / (float) LONG_PRESS_EXPANSION;
-        } else {
-            leftPosition = mLeftRectPosition;
-            rightPosition = mRightRectPosition;
+    /**
+     * Moves released handle to position suggested by {@link Callback#snapPosition(float, float)},
+     * then moves both handles to reported trim range
+     */
+    private void snapDraggedHandle() {
+        boolean isLeft = mGestureTarget == GestureTarget.LEFT_CONTROL;
+        float handleX = isLeft ? mLeftRectPosition : mRightRectPosition;
+
+        float position = unzoomedPosition(handleX);
+        float snappedPosition = mCallback.snapPosition(position, mSnapDistance / (mIsInLongPressMode ? mLongPressZoom : 1));
+
+        if (snappedPosition != position) {
+            if (isLeft) {
+                moveLeftControl(handleX - zoomedPosition(snappedPosition));
+            } else {
+                moveRightControl(handleX - zoomedPosition(snappedPosition));
+            }
         }
 
+        notifyTrimPositionChanged();
+
+        //range snapped to frames within length limits may move the other handle too
+        mLeftRectPosition = limit(mMinLeftRectPosition, mMaxRightRectPosition, zoomedPosition(mCallback.trimStartPosition()));
+        mRightRectPosition = limit(mLeftRectPosition, mMaxRightRectPosition, zoomedPosition(mCallback.trimEndPosition()));
 
+        //final preview is requested for the last reported position, so it has to be the snapped one
+        float movedX = isLeft ? mLeftRectPosition : mRightRectPosition;
+        mListener.onHandleMoved(unzoomedPosition(movedX), movedX);
 
-        mListener.onTrimPositionChanged(leftPosition, rightPosition);
+        invalidateHandles();
     }
 
+    /**
+     * @return position on unzoomed timeline of {@code x} on screen
+     */
+    private float unzoomedPosition(float x) {
+        return mIsInLongPressMode ? mLongPressModePivotX + (x - mLongPressModePivotX) / mLongPressZoom : x;
+    }
 
+    /**
+     * @return position on screen of {@code position} on unzoomed timeline
+     */
+    private float zoomedPosition(float position) {
+        return mIsInLongPressMode ? mLongPressModePivotX + (position - mLongPressModePivotX) * mLongPressZoom : position;
+    }
 
-    private void startLongPressAnimation(float pivotPoint) {
-        mAnimationStartTime = System.nanoTime();
 
+
+    private void startLongPressAnimation(float pivotPoint) {
         if (!mIsAnimating) {
-            mAnimationEndLeft = mLeftRectPosition + (mLeftRectPosition - pivotPoint) * (LONG_PRESS_EXPANSION - 1);
-            mAnimationEndRight = mRightRectPosition + (mRightRectPosition - pivotPoint) * (LONG_PRESS_EXPANSION - 1);
+            mAnimationEndLeft = mLeftRectPosition + (mLeftRectPosition - pivotPoint) * (mLongPressZoom - 1);
+            mAnimationEndRight = mRightRectPosition + (mRightRectPosition - pivotPoint) * (mLongPressZoom - 1);
         } else {
             mAnimationEndLeft = mAnimationStartLeft;
             mAnimationEndRight = mAnimationStartRight;
@@ -195,20 +272,16 @@ public class TrimmerControls extends LinearLayout {
         mIsInLongPressMode = true;
         mLongPressModePivotX = pivotPoint;
 
-        invalidate();
+        mZoomClock.start();
     }
 
     private void revertLongPressAnimation() {
-        removeCallbacks(mInvalidateRunnable);
-
-        mAnimationStartTime = System.nanoTime();
-
         if (mIsAnimating) {
             mAnimationEndLeft = mAnimationStartLeft;
             mAnimationEndRight = mAnimationStartRight;
         } else {
-            mAnimationEndLeft = mLongPressModePivotX + (mLeftRectPosition - mLongPressModePivotX) / (float) LONG_PRESS_EXPANSION;
-            mAnimationEndRight = mLongPressModePivotX + (mRightRectPosition - mLongPressModePivotX) / (float) LONG_PRESS_EXPANSION;
+            mAnimationEndLeft = mLongPressModePivotX + (mLeftRectPosition - mLongPressModePivotX) / mLongPressZoom;
+            mAnimationEndRight = mLongPressModePivotX + (mRightRectPosition - mLongPressModePivotX) / mLongPressZoom;
         }
 
         mAnimationStartLeft = mLeftRectPosition;
@@ -217,7 +290,7 @@ public class TrimmerControls extends LinearLayout {
         mIsAnimating = true;
         mIsInLongPressMode = false;
 
-        invalidate();
+        mZoomClock.start();
     }
 
     private void onLongPress(float pivotX) {
@@ -230,11 +303,11 @@ public class TrimmerControls extends LinearLayout {
     }
 
     private float maxTrimWidth() {
-        return (mIsInLongPressMode ? LONG_PRESS_EXPANSION : 1) * mCallback.maxTrimWidth();
+        return (mIsInLongPressMode ? mLongPressZoom : 1) * mCallback.maxTrimWidth();
     }
 
     private float minTrimWidth() {
-        return (mIsInLongPressMode ? LONG_PRESS_EXPANSION : 1) * mCallback.minTrimWidth();
+        return (mIsInLongPressMode ? mLongPressZoom : 1) * mCallback.minTrimWidth();
     }
 
     private void moveFrame(float distanceX) {
@@ -302,9 +375,6 @@ public class TrimmerControls extends LinearLayout {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        handleAnimations();
-
-
         mBorderRectangle.set(getCurrentLeft(), getTop(), getCurrentRight(), getBottom());
         canvas.drawRect(mBorderRectangle, mFramePaint);
         canvas.drawCircle(getLeftCircleX(), getCircleY(), mCircleRadius, mControllersPaint);
@@ -315,27 +385,67 @@ public class TrimmerControls extends LinearLayout {
         }
     }
 
-    private void handleAnimations() {
-        if (mIsAnimating) {
-            long currentAnimationTime = System.nanoTime() - mAnimationStartTime;
+    private void onZoomFrame(float fraction) {
+        if (!mIsAnimating) {
+            return;
+        }
 
+        mLeftRectPosition = mAnimationStartLeft + (mAnimationEndLeft - mAnimationStartLeft) * fraction;
+        mRightRectPosition = mAnimationStartRight + (mAnimationEndRight - mAnimationStartRight) * fraction;
 
-            if (currentAnimationTime < ANIMATION_DURATION_MS) {
-                mLeftRectPosition = mAnimationStartLeft + (mAnimationEndLeft - mAnimationStartLeft) * (currentAnimationTime / (float) ANIMATION_DURATION_MS);
-                mRightRectPosition = mAnimationStartRight + (mAnimationEndRight - mAnimationStartRight) * (currentAnimationTime / (float) ANIMATION_DURATION_MS);
-            } else {
-                mLeftRectPosition = mAnimationEndLeft;
-                mRightRectPosition = mAnimationEndRight;
+        if (fraction == 1) {
+            mIsAnimating = false;
+
+            notifyTrimPositionChanged();
+        }
 
-                mIsAnimating = false;
+        invalidateHandles();
+    }
 
-                notifyTrimPositionChanged();
-            }
+    /**
+     * Invalidates handle circles and the part of border rectangle they moved over,
+     * border between them stays the same, so handle that didn't move isn't invalidated
+     */
+    private void invalidateHandles() {
+        int extent = (int) Math.ceil(mCircleRadius + mBorderWidth);
 
-            if (mIsAnimating) {
-                postDelayed(mInvalidateRunnable, 8);
-            }
+        mBounds.set((int) getCurrentLeft() - extent, 0, (int) Math.ceil(getCurrentLeft()) + extent, getHeight());
+        invalidateChanged(mDrawnLeftHandleBounds, mBounds);
+
+        mBounds.set((int) getCurrentRight() - extent, 0, (int) Math.ceil(getCurrentRight()) + extent, getHeight());
+        invalidateChanged(mDrawnRightHandleBounds, mBounds);
+    }
+
+    private void invalidatePosition() {
+        if (mIsVideoPositionShown) {
+            int extent = (int) Math.ceil(mBorderWidth / 2) + 1;
+            mBounds.set((int) mCurrentVideoPosition - extent, 0, (int) Math.ceil(mCurrentVideoPosition) + extent, getHeight());
+        } else {
+            mBounds.setEmpty();
         }
+
+        invalidateChanged(mDrawnPositionBounds, mBounds);
+    }
+
+    private void invalidateChanged(Rect drawnBounds, Rect bounds) {
+        if (drawnBounds.equals(bounds)) {
+            return;
+        }
+
+        mDirtyRect.set(drawnBounds);
+        mDirtyRect.union(bounds);
+        drawnBounds.set(bounds);
+
+        if (!mDirtyRect.intersect(0, 0, getWidth(), getHeight())) {
+            return;
+        }
+
+        long fullArea = getWidth() * (long) getHeight();
+        //hardware renderer records the whole view again whatever rectangle is invalidated
+        long area = isHardwareAccelerated() ? fullArea : mDirtyRect.width() * (long) mDirtyRect.height();
+
+        mMetrics.onControlsInvalidated(area, fullArea);
+        invalidate(mDirtyRect);
     }
 
     private float getRightCircleX() {
@@ -369,21 +479,48 @@ public class TrimmerControls extends LinearLayout {
         return mDetector.onTouchEvent(event);
     }
 
-    private void onUp() {
+    /**
+     * @param isCancelled true if gesture was cancelled, released handle isn't snapped then
+     */
+    private void finishGesture(boolean isCancelled) {
+        if (!isCancelled && (mGestureTarget == GestureTarget.LEFT_CONTROL || mGestureTarget == GestureTarget.RIGHT_CONTROL) && !mIsAnimating) {
+            snapDraggedHandle();
+        }
+
         if (mIsInLongPressMode) {
             revertLongPressAnimation();
             mListener.onLongClickRelease();
         }
 
+        if (mGestureTarget != null && mGestureTarget != GestureTarget.NONE) {
+            mListener.onDragFinished(isCancelled);
+        }
+
         mGestureTarget = null;
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        mZoomClock.stop();
+
+        //handles are left where running animation would end, trim range doesn't change with zoom
+        if (mIsAnimating) {
+            mLeftRectPosition = mAnimationEndLeft;
+            mRightRectPosition = mAnimationEndRight;
+            mIsAnimating = false;
+        }
+    }
+
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
         mMaxRightRectPosition = getRight() - mMinLeftRectPosition;
         mLeftRectPosition = mMinLeftRectPosition;
         mRightRectPosition = Math.min(mLeftRectPosition + maxTrimWidth(), mMaxRightRectPosition);
+
+        invalidateHandles();
     }
 
     private static float limit(float min, float max, float value) {
@@ -399,6 +536,24 @@ public class TrimmerControls extends LinearLayout {
     interface Callback {
         float minTrimWidth();
         float maxTrimWidth();
+
+        /**
+         * @return zoom of controls around long pressed control
+         */
+        float longPressZoom();
+
+        /**
+         * @return position on unzoomed timeline that released handle at {@code position}
+         * should move to, {@code position} itself to leave it where it is
+         */
+        float snapPosition(float position, float maxDistance);
+
+        /**
+         * @return positions on unzoomed timeline of the last reported trim range, that
+         * can differ from positions of handles when range is snapped to frames
+         */
+        float trimStartPosition();
+        float trimEndPosition();
     }
 
     interface Listener {
@@ -406,18 +561,35 @@ public class TrimmerControls extends LinearLayout {
         void onLongClick(float pivotX);
 
         void onLongClickRelease();
+
+        void onDragStarted();
+
+        /**
+         * @param isCancelled true if gesture was cancelled rather than released
+         */
+        void onDragFinished(boolean isCancelled);
+
+        /**
+         * @param position position of dragged handle on unzoomed timeline
+         * @param x        position of dragged handle on screen
+         */
+        void onHandleMoved(float position, float x);
     }
 
     void hideVideoPositionIndicator() {
         mIsVideoPositionShown = false;
 
-        invalidate();
+        invalidatePosition();
     }
 
     void updateVideoPositionIndicator(float currentPosition) {
+        if (mIsVideoPositionShown && mCurrentVideoPosition == currentPosition) {
+            return;
+        }
+
         mIsVideoPositionShown = true;
         mCurrentVideoPosition = currentPosition;
 
-        invalidate();
+        invalidatePosition();
     }
 }
@@ -0,0 +1,128 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Performance counters of a single {@link Trimmer}, safe to read from any thread.
+ * Durations are -1 until first measured.
+ */
+public class TrimmerMetrics {
+    private volatile long mKeyframeStripTimeMs = -1;
+    private volatile long mExactStripTimeMs = -1;
+    private final AtomicInteger mCancelledDecodeCount = new AtomicInteger();
+
+    private volatile long mLastPreviewLatencyMs = -1;
+    private final AtomicLong mPreviewLatencySumMs = new AtomicLong();
+    private final AtomicInteger mPreviewCount = new AtomicInteger();
+
+    private volatile long mFirstInvalidationTimeMs = -1;
+    private final AtomicLong mControlsRedrawArea = new AtomicLong();
+    private final AtomicLong mControlsFullRedrawArea = new AtomicLong();
+
+    /**
+     * @return time from main strip request until every main frame showed at least a keyframe,
+     * in {@link Trimmer.ThumbnailMode#EXACT} mode equals {@link #getExactStripTimeMs()}
+     */
+    public long getKeyframeStripTimeMs() {
+        return mKeyframeStripTimeMs;
+    }
+
+    /**
+     * @return time from main strip request until every main frame showed exact frame
+     */
+    public long getExactStripTimeMs() {
+        return mExactStripTimeMs;
+    }
+
+    /**
+     * @return count of frame decodes that were skipped because their thumbnails were no longer needed
+     */
+    public int getCancelledDecodeCount() {
+        return mCancelledDecodeCount.get();
+    }
+
+    /**
+     * @return time from handle move until its preview frame was drawn, of the latest preview
+     */
+    public long getLastPreviewLatencyMs() {
+        return mLastPreviewLatencyMs;
+    }
+
+    /**
+     * @return average of {@link #getLastPreviewLatencyMs()} over all shown previews
+     */
+    public long getAveragePreviewLatencyMs() {
+        int previewCount = mPreviewCount.get();
+        return previewCount > 0 ? mPreviewLatencySumMs.get() / previewCount : -1;
+    }
+
+    /**
+     * @return pixels of trim controls invalidated per second since controls were first invalidated.
+     * Hardware accelerated controls redraw whole view on every change, so this equals
+     * {@link #getControlsFullRedrawAreaPerSecond()} for them and savings are software rendering only.
+     */
+    public long getControlsRedrawAreaPerSecond() {
+        return perSecond(mControlsRedrawArea.get());
+    }
+
+    /**
+     * @return pixels per second that would have been invalidated if every change of trim controls
+     * redrew all of them, to compare with {@link #getControlsRedrawAreaPerSecond()}
+     */
+    public long getControlsFullRedrawAreaPerSecond() {
+        return perSecond(mControlsFullRedrawArea.get());
+    }
+
+    private long perSecond(long area) {
+        long firstInvalidationTimeMs = mFirstInvalidationTimeMs;
+
+        if (firstInvalidationTimeMs < 0) {
+            return 0;
+        }
+
+        return area * 1000 / Math.max(1, SystemClock.uptimeMillis() - firstInvalidationTimeMs);
+    }
+
+    void setKeyframeStripTimeMs(long keyframeStripTimeMs) {
+        mKeyframeStripTimeMs = keyframeStripTimeMs;
+    }
+
+    void setExactStripTimeMs(long exactStripTimeMs) {
+        mExactStripTimeMs = exactStripTimeMs;
+    }
+
+    void onDecodesCancelled(int count) {
+        mCancelledDecodeCount.addAndGet(count);
+    }
+
+    void onPreviewShown(long latencyMs) {
+        mLastPreviewLatencyMs = latencyMs;
+        mPreviewLatencySumMs.addAndGet(latencyMs);
+        mPreviewCount.incrementAndGet();
+    }
+
+    void onControlsInvalidated(long area, long fullArea) {
+        if (mFirstInvalidationTimeMs < 0) {
+            mFirstInvalidationTimeMs = SystemClock.uptimeMillis();
+        }
+
+        mControlsRedrawArea.addAndGet(area);
+        mControlsFullRedrawArea.addAndGet(fullArea);
+    }
+
+    @Override
+    public String toString() {
+        return "TrimmerMetrics{" +
+                "keyframeStripTimeMs=" + mKeyframeStripTimeMs +
+                ", exactStripTimeMs=" + mExactStripTimeMs +
+                ", cancelledDecodeCount=" + mCancelledDecodeCount +
+                ", lastPreviewLatencyMs=" + mLastPreviewLatencyMs +
+                ", averagePreviewLatencyMs=" + getAveragePreviewLatencyMs() +
+                ", controlsRedrawAreaPerSecond=" + getControlsRedrawAreaPerSecond() +
+                ", controlsFullRedrawAreaPerSecond=" + getControlsFullRedrawAreaPerSecond() +
+                '}';
+    }
+}
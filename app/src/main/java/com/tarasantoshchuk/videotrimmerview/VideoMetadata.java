@@ -0,0 +1,129 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Properties of {@link VideoSource} that are needed before any thumbnail is decoded
+ */
+class VideoMetadata {
+    final int mWidth;
+    final int mHeight;
+    final int mRotationDegrees;
+    final long mDurationMs;
+    final boolean mHasAudio;
+
+    VideoMetadata(int width, int height, int rotationDegrees, long durationMs, boolean hasAudio) {
+        mWidth = width;
+        mHeight = height;
+        mRotationDegrees = rotationDegrees;
+        mDurationMs = durationMs;
+        mHasAudio = hasAudio;
+    }
+
+    /**
+     * Opens the source and reads its metadata, must not be called on main thread. Mp4 sources are
+     * probed by reading their moov box only, other sources are opened with {@link MediaMetadataRetriever}.
+     *
+     * @throws IllegalArgumentException if source can't be opened or has no video
+     */
+    static VideoMetadata probe(VideoSource source) {
+        try {
+            VideoMetadata metadata = probeMp4(source);
+
+            if (metadata != null) {
+                return metadata;
+            }
+        } catch (IOException | RuntimeException ignored) {
+            //not an mp4 file, or the provider refused a file descriptor, retriever may still be able to read it
+        }
+
+        return probeRetriever(source);
+    }
+
+    private static VideoMetadata probeMp4(VideoSource source) throws IOException {
+        FileInputStream input = source.openInputStream();
+
+        try {
+            return fromMovie(Mp4Parser.probe(input.getChannel(), source.startOffset(), source.length()));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @return metadata of {@code movie}, or null if it lacks video size or duration
+     */
+    static VideoMetadata fromMovie(Mp4Movie movie) {
+        Mp4Track video = movie.videoTrack();
+
+        if (video == null || movie.mDuration <= 0) {
+            return null;
+        }
+
+        int width = video.mCodedWidth;
+        int height = video.mCodedHeight;
+
+        if (width <= 0 || height <= 0) {
+            //tkhd size is 16.16 fixed point
+            width = video.mWidth >> 16;
+            height = video.mHeight >> 16;
+        }
+
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        boolean hasAudio = false;
+
+        for (Mp4Track track : movie.mTracks) {
+            hasAudio |= track.isAudio();
+        }
+
+        return new VideoMetadata(width, height, video.rotationDegrees(), movie.mDuration * 1000 / movie.mTimescale, hasAudio);
+    }
+
+    private static VideoMetadata probeRetriever(VideoSource source) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+
+        try {
+            source.setDataSource(retriever);
+
+            int rotationDegrees = 0;
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                    && retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION) != null) {
+                rotationDegrees = parse(retriever, MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+            }
+
+            return new VideoMetadata(
+                    parse(retriever, MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH),
+                    parse(retriever, MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT),
+                    rotationDegrees,
+                    parse(retriever, MediaMetadataRetriever.METADATA_KEY_DURATION),
+                    "yes".equals(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_HAS_AUDIO)));
+        } finally {
+            retriever.release();
+        }
+    }
+
+    private static int parse(MediaMetadataRetriever retriever, int key) {
+        String value = retriever.extractMetadata(key);
+
+        if (value == null) {
+            throw new IllegalArgumentException("source has no metadata " + key);
+        }
+
+        return Integer.parseInt(value);
+    }
+
+    /**
+     * @return aspect ratio of frames as they are displayed, with rotation applied
+     */
+    float aspectRatio() {
+        return mRotationDegrees % 180 == 0 ? mWidth / (float) mHeight : mHeight / (float) mWidth;
+    }
+}
@@ -0,0 +1,361 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.media.MediaExtractor;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Video that thumbnails are decoded from, opened the same way by every
+ * {@link MediaMetadataRetriever} and {@link MediaExtractor} that reads it.
+ */
+abstract class VideoSource {
+    /**
+     * Length that makes file descriptor source span until the end of file
+     */
+    static final long UNKNOWN_LENGTH = 0x7ffffffffffffffL;
+
+    static VideoSource fromPath(String path) {
+        return new PathSource(path);
+    }
+
+    static VideoSource fromUri(Context context, Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            return new PathSource(uri.getPath());
+        }
+
+        return new UriSource(context.getApplicationContext(), uri);
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code fd} can't be duplicated, e.g. it is closed
+     */
+    static VideoSource fromFileDescriptor(FileDescriptor fd, long offset, long length) {
+        try {
+            return new FileDescriptorSource(ParcelFileDescriptor.dup(fd), offset, length);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't duplicate file descriptor", e);
+        }
+    }
+
+    abstract void setDataSource(MediaMetadataRetriever retriever);
+
+    abstract void setDataSource(MediaExtractor extractor) throws IOException;
+
+    /**
+     * @return string that changes whenever contents of the source change,
+     * or null if source can't be identified and must not be cached on disk
+     */
+    abstract String identity();
+
+    /**
+     * Opens file that contains the source for reading with {@link java.nio.channels.FileChannel},
+     * source starts at {@link #startOffset()} of the file and spans {@link #length()} bytes.
+     * Returned stream must be closed by caller.
+     */
+    abstract FileInputStream openInputStream() throws IOException;
+
+    long startOffset() {
+        return 0;
+    }
+
+    long length() {
+        return UNKNOWN_LENGTH;
+    }
+
+    /**
+     * Closes resources that source holds, once nothing reads from it. Source can't be opened afterwards.
+     */
+    void release() {
+    }
+
+    private static class PathSource extends VideoSource {
+        private final String mPath;
+
+        PathSource(String path) {
+            mPath = path;
+        }
+
+        @Override
+        void setDataSource(MediaMetadataRetriever retriever) {
+            retriever.setDataSource(mPath);
+        }
+
+        @Override
+        void setDataSource(MediaExtractor extractor) throws IOException {
+            extractor.setDataSource(mPath);
+        }
+
+        @Override
+        String identity() {
+            File file = new File(mPath);
+            return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        }
+
+        @Override
+        FileInputStream openInputStream() throws IOException {
+            return new FileInputStream(mPath);
+        }
+    }
+
+    private static class UriSource extends VideoSource {
+        private final Context mContext;
+        private final Uri mUri;
+
+        UriSource(Context context, Uri uri) {
+            mContext = context;
+            mUri = uri;
+        }
+
+        @Override
+        void setDataSource(MediaMetadataRetriever retriever) {
+            retriever.setDataSource(mContext, mUri);
+        }
+
+        @Override
+        void setDataSource(MediaExtractor extractor) throws IOException {
+            extractor.setDataSource(mContext, mUri, null);
+        }
+
+        @Override
+        String identity() {
+            String version = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? statVersion() : null;
+
+            if (version == null) {
+                version = queryVersion();
+            }
+
+            return version != null ? mUri + ":" + version : null;
+        }
+
+        /**
+         * @return size and modification time of file behind uri, or null if provider doesn't serve regular file
+         */
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private String statVersion() {
+            ParcelFileDescriptor fd = null;
+
+            try {
+                fd = mContext.getContentResolver().openFileDescriptor(mUri, "r");
+
+                if (fd == null) {
+                    return null;
+                }
+
+                StructStat stat = Os.fstat(fd.getFileDescriptor());
+
+                //pipes have neither size nor meaningful modification time
+                if (!OsConstants.S_ISREG(stat.st_mode)) {
+                    return null;
+                }
+
+                return stat.st_size + ":" + stat.st_mtime;
+            } catch (FileNotFoundException | ErrnoException | SecurityException e) {
+                return null;
+            } finally {
+                closeQuietly(fd);
+            }
+        }
+
+        /**
+         * @return size and modification time that provider reports for uri, or null if it reports only one of them
+         */
+        private String queryVersion() {
+            Cursor cursor = null;
+
+            try {
+                cursor = mContext.getContentResolver().query(mUri, null, null, null, null);
+
+                if (cursor == null || !cursor.moveToFirst()) {
+                    return null;
+                }
+
+                int sizeColumn = cursor.getColumnIndex(OpenableColumns.SIZE);
+                int modifiedColumn = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
+
+                if (sizeColumn < 0 || modifiedColumn < 0 || cursor.isNull(sizeColumn) || cursor.isNull(modifiedColumn)) {
+                    return null;
+                }
+
+                return cursor.getLong(sizeColumn) + ":" + cursor.getLong(modifiedColumn);
+            } catch (IllegalArgumentException | SecurityException e) {
+                return null;
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+
+        private static void closeQuietly(ParcelFileDescriptor fd) {
+            if (fd == null) {
+                return;
+            }
+
+            try {
+                fd.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        FileInputStream openInputStream() throws IOException {
+            ParcelFileDescriptor fd = mContext.getContentResolver().openFileDescriptor(mUri, "r");
+
+            if (fd == null) {
+                throw new FileNotFoundException("can't open " + mUri);
+            }
+
+            return new ParcelFileDescriptor.AutoCloseInputStream(fd);
+        }
+    }
+
+    /**
+     * Reads its own duplicate of descriptor, so that caller's descriptor can be closed or reused right away.
+     * Duplicate is closed on {@link #release()} once no call uses it, decoders keep their own duplicates.
+     */
+    private static class FileDescriptorSource extends VideoSource {
+        private final ParcelFileDescriptor mFd;
+        private final long mOffset;
+        private final long mLength;
+
+        private int mUseCount;
+        private boolean mIsReleased;
+
+        FileDescriptorSource(ParcelFileDescriptor fd, long offset, long length) {
+            mFd = fd;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        @Override
+        void setDataSource(MediaMetadataRetriever retriever) {
+            FileDescriptor fd = acquire();
+
+            if (fd == null) {
+                //the same exception that retriever throws for invalid descriptor
+                throw new IllegalArgumentException("video source is released");
+            }
+
+            try {
+                retriever.setDataSource(fd, mOffset, mLength);
+            } finally {
+                releaseUse();
+            }
+        }
+
+        @Override
+        void setDataSource(MediaExtractor extractor) throws IOException {
+            FileDescriptor fd = acquire();
+
+            if (fd == null) {
+                throw new IOException("video source is released");
+            }
+
+            try {
+                extractor.setDataSource(fd, mOffset, mLength);
+            } finally {
+                releaseUse();
+            }
+        }
+
+        @Override
+        String identity() {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                return null;
+            }
+
+            FileDescriptor fd = acquire();
+
+            if (fd == null) {
+                return null;
+            }
+
+            try {
+                StructStat stat = Os.fstat(fd);
+                return stat.st_dev + ":" + stat.st_ino + ":" + stat.st_size + ":" + stat.st_mtime + ":" + mOffset + ":" + mLength;
+            } catch (ErrnoException e) {
+                return null;
+            } finally {
+                releaseUse();
+            }
+        }
+
+        @Override
+        FileInputStream openInputStream() throws IOException {
+            FileDescriptor fd = acquire();
+
+            if (fd == null) {
+                throw new IOException("video source is released");
+            }
+
+            try {
+                //stream is read after source may have been released, so it closes a duplicate of its own
+                return new ParcelFileDescriptor.AutoCloseInputStream(ParcelFileDescriptor.dup(fd));
+            } finally {
+                releaseUse();
+            }
+        }
+
+        @Override
+        long startOffset() {
+            return mOffset;
+        }
+
+        @Override
+        long length() {
+            return mLength;
+        }
+
+        @Override
+        synchronized void release() {
+            mIsReleased = true;
+
+            if (mUseCount == 0) {
+                close();
+            }
+        }
+
+        /**
+         * @return descriptor that stays open until {@link #releaseUse()}, or null if source is released
+         */
+        private synchronized FileDescriptor acquire() {
+            if (mIsReleased) {
+                return null;
+            }
+
+            mUseCount++;
+            return mFd.getFileDescriptor();
+        }
+
+        private synchronized void releaseUse() {
+            if (--mUseCount == 0 && mIsReleased) {
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                mFd.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Audio waveform drawn from {@link PeakPyramid} level that has about one bucket per pixel
+ * at current zoom, zoomed the same way as {@link ZoomableLayout}
+ */
+public class WaveformView extends View {
+    private static final int WAVEFORM_COLOR = 0x99ffffff;
+
+    private final Paint mPaint = new Paint();
+
+    private PeakPyramid mPeaks;
+    private float mVideoDurationMs;
+    private float mZoom = 1;
+    private float mPivotX;
+
+    private float[] mLines = new float[0];
+
+    public WaveformView(Context context) {
+        this(context, null);
+    }
+
+    public WaveformView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public WaveformView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        mPaint.setColor(WAVEFORM_COLOR);
+    }
+
+    void setPeaks(PeakPyramid peaks) {
+        mPeaks = peaks;
+        invalidate();
+    }
+
+    /**
+     * Peaks are drawn over the part of video that their audio track spans
+     */
+    void setVideoDurationMs(float videoDurationMs) {
+        mVideoDurationMs = videoDurationMs;
+        invalidate();
+    }
+
+    boolean hasPeaks() {
+        return mPeaks != null;
+    }
+
+    void setZoom(float zoom, float pivotX) {
+        if (zoom == mZoom && pivotX == mPivotX) {
+            return;
+        }
+
+        mZoom = zoom;
+        mPivotX = pivotX;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        //one vertical line per pixel column
+        mLines = new float[4 * w];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (mPeaks == null) {
+            return;
+        }
+
+        int width = getWidth();
+        float centerY = getHeight() / 2f;
+        float scale = centerY / 128;
+
+        float peaksWidth = width * mZoom * videoFraction(mPeaks);
+        int level = mPeaks.levelFor(peaksWidth);
+        int size = mPeaks.size(level);
+        float bucketsPerPixel = size / peaksWidth;
+        float offset = mPivotX * (1 - mZoom);
+
+        int linesCount = 0;
+
+        for (int x = 0; x < width; x++) {
+            int firstBucket = Math.max(0, (int) ((x - offset) * bucketsPerPixel));
+            int lastBucket = Math.min(size, Math.max(firstBucket + 1, (int) ((x + 1 - offset) * bucketsPerPixel)));
+
+            if (firstBucket >= lastBucket) {
+                continue;
+            }
+
+            int min = Byte.MAX_VALUE;
+            int max = Byte.MIN_VALUE;
+
+            for (int bucket = firstBucket; bucket < lastBucket; bucket++) {
+                min = Math.min(min, mPeaks.min(level, bucket));
+                max = Math.max(max, mPeaks.max(level, bucket));
+            }
+
+            mLines[linesCount++] = x + 0.5f;
+            mLines[linesCount++] = centerY - max * scale;
+            mLines[linesCount++] = x + 0.5f;
+            //silence is still drawn one pixel high
+            mLines[linesCount++] = centerY - min * scale + 1;
+        }
+
+        canvas.drawLines(mLines, 0, linesCount, mPaint);
+    }
+
+    /**
+     * @return duration of audio relative to video, 1 if either of them is unknown
+     */
+    private float videoFraction(PeakPyramid peaks) {
+        if (peaks.durationUs() <= 0 || mVideoDurationMs <= 0) {
+            return 1;
+        }
+
+        return peaks.durationUs() / 1000f / mVideoDurationMs;
+    }
+}
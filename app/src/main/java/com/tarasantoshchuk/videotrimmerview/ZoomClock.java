@@ -0,0 +1,96 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.view.Choreographer;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.Interpolator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives zoom animations from display frame callbacks. Animations that share a clock advance
+ * on the same frame timestamp with the same interpolated fraction, so filmstrip and trim
+ * controls stay in step.
+ */
+class ZoomClock implements Choreographer.FrameCallback {
+    static final long DURATION_NS = 300_000_000;
+
+    private static final long NOT_STARTED = -1;
+
+    private final Interpolator mInterpolator = new AccelerateDecelerateInterpolator();
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private boolean mIsRunning;
+    private long mStartTimeNs;
+    private long mLastFrameTimeNs;
+    private long mDurationNs;
+
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Starts animation on next frame. Running animation is restarted to last as long as it has
+     * already run, so that reversing it returns to where it started in the same time.
+     * Several starts before next frame are one start.
+     */
+    void start() {
+        if (mIsRunning && mStartTimeNs == NOT_STARTED) {
+            return;
+        }
+
+        mDurationNs = mIsRunning ? Math.min(DURATION_NS, mLastFrameTimeNs - mStartTimeNs) : DURATION_NS;
+        mStartTimeNs = NOT_STARTED;
+
+        if (!mIsRunning) {
+            mIsRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Stops running animation without notifying listeners, they have to settle their state themselves.
+     * Must be called when views that listen to the clock are detached, so it doesn't keep them alive.
+     */
+    void stop() {
+        if (!mIsRunning) {
+            return;
+        }
+
+        Choreographer.getInstance().removeFrameCallback(this);
+        mIsRunning = false;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mStartTimeNs == NOT_STARTED) {
+            mStartTimeNs = frameTimeNanos;
+        }
+
+        mLastFrameTimeNs = frameTimeNanos;
+
+        long elapsedNs = frameTimeNanos - mStartTimeNs;
+        float fraction = elapsedNs >= mDurationNs ? 1 : mInterpolator.getInterpolation(elapsedNs / (float) mDurationNs);
+
+        mIsRunning = fraction < 1;
+
+        if (mIsRunning) {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onZoomFrame(fraction);
+        }
+    }
+
+    interface Listener {
+        /**
+         * @param fraction interpolated progress of current animation, 1 on its last frame
+         */
+        void onZoomFrame(float fraction);
+    }
+}
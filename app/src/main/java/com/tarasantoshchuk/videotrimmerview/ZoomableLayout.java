@@ -1,359 +1,678 @@
-package com.tarasantoshchuk.videotrimmerview;
-
-import android.animation.Animator;
-import android.animation.AnimatorSet;
-import android.animation.ObjectAnimator;
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.util.AttributeSet;
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.ImageView;
-
-import java.util.ArrayList;
-
-import rx.Observable;
-import rx.Subscriber;
-
-public class ZoomableLayout extends ViewGroup {
-    public static final int MAIN_FRAMES_COUNT = 5;
-    public static final int EXPANSION_FACTOR = 3;
-    private int mPreviousZoomPivotMainFrame;
-    private float mPreviousZoomPivotX;
-
-    public ZoomableLayout(Context context) {
-        this(context, null);
-    }
-
-    public ZoomableLayout(Context context, AttributeSet attrs) {
-        this(context, attrs, 0);
-    }
-
-    public ZoomableLayout(Context context, AttributeSet attrs, int defStyleAttr) {
-        super(context, attrs, defStyleAttr);
-        init(context);
-    }
-
-    private void init(Context context) {
-        for(int i = 0; i < MAIN_FRAMES_COUNT + (EXPANSION_FACTOR - 1) * (MAIN_FRAMES_COUNT - 1); i++) {
-            addView(new ImageView(context));
-        }
-    }
-
-    private Callback mCallback;
-
-    public void setCallback(Callback callback) {
-        mCallback = callback;
-    }
-
-    @Override
-    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
-        if (changed) {
-            for(int i = 0; i < getChildCount(); i++) {
-                getChildAt(i).layout(0, getTop(), 0, getBottom());
-            }
-        }
-
-
-        positionMainFrames();
-        positionAdditionalFrames();
-    }
-
-    private void positionAdditionalFrames() {
-        int childCount = getChildCount();
-        int width = getWidth();
-
-        //trace additional frames
-        for(int frameIndex = 0; frameIndex < childCount; frameIndex++) {
-            if (frameIndex % EXPANSION_FACTOR == 0) {
-                //skip main frame
-                continue;
-            }
-
-            int previousMainFrameIndex = (frameIndex - frameIndex % EXPANSION_FACTOR) / EXPANSION_FACTOR;
-
-            ImageView view = getChildAt(frameIndex);
-
-            int mainFrameRightSide = width / MAIN_FRAMES_COUNT * (previousMainFrameIndex + 1);
-
-            view.setLeft(0);
-            view.setRight(width / MAIN_FRAMES_COUNT);
-            view.setScaleX(0);
-            view.setTranslationX(mainFrameRightSide - width/MAIN_FRAMES_COUNT / 2);
-        }
-    }
-
-    private void positionMainFrames() {
-        int childCount = getChildCount();
-        int width = getWidth();
-
-        //trace main frames
-        int mainFrameIndex = 0;
-        for(int frameIndex = 0; frameIndex < childCount; frameIndex += EXPANSION_FACTOR) {
-            ImageView view = getChildAt(frameIndex);
-
-            int leftSide = width / MAIN_FRAMES_COUNT * mainFrameIndex;
-
-            setMainFrameSpanBitmap(leftSide, mainFrameIndex);
-
-            view.setLeft(0);
-            view.setRight(width / MAIN_FRAMES_COUNT);
-            view.setTranslationX(leftSide);
-
-            mainFrameIndex++;
-        }
-    }
-
-    private void setSingleFrameBitmap(int leftSide, final ImageView view) {
-        mCallback.getBitmapAt(leftSide, -1).subscribe(new Subscriber<Bitmap>() {
-            @Override
-            public void onCompleted() {
-
-            }
-
-            @Override
-            public void onError(Throwable e) {
-
-            }
-
-            @Override
-            public void onNext(Bitmap bitmap) {
-                view.setImageBitmap(bitmap);
-            }
-        });
-    }
-
-    private void setMainFrameSpanBitmap(int leftSide, final int mainFrameIndex) {
-        mCallback.getBitmapAt(leftSide, mainFrameIndex).subscribe(new Subscriber<Bitmap>() {
-            @Override
-            public void onCompleted() {
-
-            }
-
-            @Override
-            public void onError(Throwable e) {
-
-            }
-
-            @Override
-            public void onNext(Bitmap bitmap) {
-                int mainFrameCommonIndex = mainFrameIndex * EXPANSION_FACTOR;
-
-                for (int offset = 0; offset < EXPANSION_FACTOR; offset++) {
-                    getChildAt(mainFrameCommonIndex + offset).setImageBitmap(bitmap);
-                }
-            }
-        });
-    }
-
-    public void revertAnimation() {
-        AnimatorSet animatorSet = new AnimatorSet();
-
-        int mainFrameIndex = 0;
-        int childCount = getChildCount();
-        int width = getWidth();
-        float viewWidth = width / MAIN_FRAMES_COUNT;
-
-        ArrayList<Animator> animatorsList = new ArrayList<>();
-
-        //trace main frames
-        for(int frameIndex = 0; frameIndex < childCount; frameIndex += EXPANSION_FACTOR) {
-            ImageView view = getChildAt(frameIndex);
-
-            ObjectAnimator translationAnimator = new ObjectAnimator();
-            translationAnimator.setTarget(view);
-            translationAnimator.getDuration();
-            translationAnimator.setProperty(View.TRANSLATION_X);
-            float mainFrameLeft = mainFrameIndex * viewWidth;
-            translationAnimator.setFloatValues(mainFrameLeft);
-
-            animatorsList.add(translationAnimator);
-
-            mainFrameIndex++;
-        }
-
-
-        //trace additional frames
-        for(int frameIndex = 0; frameIndex < childCount; frameIndex++) {
-            if (frameIndex % EXPANSION_FACTOR == 0) {
-                //skip main frames
-                continue;
-            }
-
-            int previousMainFrameIndex = (frameIndex - frameIndex % EXPANSION_FACTOR) / EXPANSION_FACTOR;
-
-            ImageView view = getChildAt(frameIndex);
-
-            float mainFrameLeft = previousMainFrameIndex * viewWidth;
-
-            float leftSide = mainFrameLeft + viewWidth / 2f;
-
-            ObjectAnimator translationAnimator = new ObjectAnimator();
-            translationAnimator.setTarget(view);
-            translationAnimator.setProperty(View.TRANSLATION_X);
-            translationAnimator.setFloatValues(leftSide);
-
-            ObjectAnimator scaleAnimator = new ObjectAnimator();
-            scaleAnimator.setTarget(view);
-            scaleAnimator.setProperty(View.SCALE_X);
-            scaleAnimator.setFloatValues(0f);
-
-            animatorsList.add(scaleAnimator);
-            animatorsList.add(translationAnimator);
-
-        }
-
-        animatorSet.playTogether(animatorsList);
-        animatorSet.addListener(new Animator.AnimatorListener() {
-            @Override
-            public void onAnimationStart(Animator animation) {
-
-            }
-
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                onAnimationZoomOutEnd();
-            }
-
-            @Override
-            public void onAnimationCancel(Animator animation) {
-
-            }
-
-            @Override
-            public void onAnimationRepeat(Animator animation) {
-
-            }
-        });
-        animatorSet.start();
-    }
-
-    public void animateViews(float pivotX) {
-        AnimatorSet animatorSet = new AnimatorSet();
-
-        int mainFrameIndex = 0;
-        int childCount = getChildCount();
-        int width = getWidth();
-        float viewWidth = width / MAIN_FRAMES_COUNT;
-
-        ArrayList<Animator> animatorsList = new ArrayList<>();
-
-        int pivotMainFrameIndex = (int) Math.floor(pivotX / viewWidth);
-
-        if (pivotMainFrameIndex >= MAIN_FRAMES_COUNT) {
-            pivotMainFrameIndex = MAIN_FRAMES_COUNT - 1;
-        } else if (pivotMainFrameIndex < 0) {
-            pivotMainFrameIndex = 0;
-        }
-
-        float pivotMainFrameLeft = pivotMainFrameIndex * viewWidth;
-
-        mPreviousZoomPivotMainFrame = pivotMainFrameIndex;
-        mPreviousZoomPivotX = pivotX;
-
-        //trace main frames
-        for(int frameIndex = 0; frameIndex < childCount; frameIndex += EXPANSION_FACTOR) {
-            ImageView view = getChildAt(frameIndex);
-
-            ObjectAnimator translationAnimator = new ObjectAnimator();
-            translationAnimator.setTarget(view);
-            translationAnimator.setProperty(View.TRANSLATION_X);
-            float mainFrameLeft = pivotMainFrameLeft + view.getWidth() * EXPANSION_FACTOR * (mainFrameIndex - pivotMainFrameIndex);
-            translationAnimator.setFloatValues(mainFrameLeft);
-
-            animatorsList.add(translationAnimator);
-
-            mainFrameIndex++;
-        }
-
-
-        //trace additional frames
-        for(int frameIndex = 0; frameIndex < childCount; frameIndex++) {
-            if (frameIndex % EXPANSION_FACTOR == 0) {
-                //skip main frames
-                continue;
-            }
-
-            int previousMainFrameIndex = (frameIndex - frameIndex % EXPANSION_FACTOR) / EXPANSION_FACTOR;
-
-            ImageView view = getChildAt(frameIndex);
-
-            float mainFrameLeft = pivotMainFrameLeft + view.getWidth() * EXPANSION_FACTOR * (previousMainFrameIndex - pivotMainFrameIndex);
-
-            float leftSide = mainFrameLeft + (frameIndex - previousMainFrameIndex * EXPANSION_FACTOR) * viewWidth;
-
-            ObjectAnimator translationAnimator = new ObjectAnimator();
-            translationAnimator.setTarget(view);
-            translationAnimator.setProperty(View.TRANSLATION_X);
-            translationAnimator.setFloatValues(leftSide);
-
-            ObjectAnimator scaleAnimator = new ObjectAnimator();
-            scaleAnimator.setTarget(view);
-            scaleAnimator.setProperty(View.SCALE_X);
-            scaleAnimator.setFloatValues(1f);
-
-            animatorsList.add(scaleAnimator);
-            animatorsList.add(translationAnimator);
-
-        }
-
-        animatorSet.playTogether(animatorsList);
-        animatorSet.addListener(new Animator.AnimatorListener() {
-            @Override
-            public void onAnimationStart(Animator animation) {
-
-            }
-
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                onAnimationZoomInEnd();
-            }
-
-            @Override
-            public void onAnimationCancel(Animator animation) {
-
-            }
-
-            @Override
-            public void onAnimationRepeat(Animator animation) {
-
-            }
-        });
-        animatorSet.start();
-    }
-
-    private void onAnimationZoomInEnd() {
-        int zoomPivotFrameIndex = mPreviousZoomPivotMainFrame * EXPANSION_FACTOR;
-
-        int firstFrameOnScreen = zoomPivotFrameIndex - mPreviousZoomPivotMainFrame;
-        int lastFrameOnScreen = firstFrameOnScreen + MAIN_FRAMES_COUNT;
-
-        for (int i = firstFrameOnScreen; i < lastFrameOnScreen; i++) {
-            ImageView view = getChildAt(i);
-            setSingleFrameBitmap((int) (mPreviousZoomPivotX + (view.getX() - mPreviousZoomPivotX) / EXPANSION_FACTOR), view);
-        }
-    }
-
-    private void onAnimationZoomOutEnd() {
-        int zoomPivotFrameIndex = mPreviousZoomPivotMainFrame * EXPANSION_FACTOR;
-
-        int firstFrameOnScreen = zoomPivotFrameIndex - mPreviousZoomPivotMainFrame;
-        int lastFrameOnScreen = firstFrameOnScreen + MAIN_FRAMES_COUNT;
-
-        for (int i = firstFrameOnScreen; i < lastFrameOnScreen; i++) {
-            ImageView view = getChildAt(i);
-            int mainFrameCommonIndex = (i - i % EXPANSION_FACTOR);
-            ImageView mainFrame = getChildAt(mainFrameCommonIndex);
-            setSingleFrameBitmap((int) mainFrame.getX(), view);
-        }
-    }
-
-    @Override
-    public ImageView getChildAt(int index) {
-        return (ImageView) super.getChildAt(index);
-    }
-
-    public interface Callback {
-        Observable<Bitmap> getBitmapAt(float pixelPosition, int mainFramePosition);
-    }
-}
+package com.tarasantoshchuk.videotrimmerview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.util.Arrays;
+
+import rx.Observable;
+import rx.Observer;
+import rx.Subscription;
+
+/**
+ * Filmstrip of video frames that can be zoomed around a pivot. Timeline is split into
+ * {@code MAIN_FRAMES_COUNT * density} frames, where density is the largest zoom level not greater
+ * than current zoom, so every zoom level shows thumbnails of its own temporal density.
+ * Only frames that are on screen are bound, to a fixed set of recycled slots, which are either
+ * child views or rectangles drawn by this view itself, see {@link RenderMode}.
+ */
+public class ZoomableLayout extends ViewGroup {
+    public static final int MAIN_FRAMES_COUNT = 5;
+
+    private static final int[] DEFAULT_ZOOM_LEVELS = {1, 3, 5, 10};
+
+    //frames are never narrower than main frame, so at most one more of them is partially visible
+    static final int SLOTS_COUNT = MAIN_FRAMES_COUNT + 2;
+
+    private static final int NO_FRAME = -1;
+
+    private final int[] mSlotFrames = new int[SLOTS_COUNT];
+    private final int[] mSlotDensities = new int[SLOTS_COUNT];
+    private final int[] mPreviousSlotFrames = new int[SLOTS_COUNT];
+    private final int[] mPreviousSlotDensities = new int[SLOTS_COUNT];
+    private final Bitmap[] mPreviousBitmaps = new Bitmap[SLOTS_COUNT];
+    private final Bitmap[] mShownBitmaps = new Bitmap[SLOTS_COUNT];
+    private final FrameRequest[] mFrameRequests = new FrameRequest[SLOTS_COUNT];
+    private final int[] mNewSlots = new int[SLOTS_COUNT];
+
+    //every request owns at least one slot, so there are never more of them than slots
+    private final FrameRequest[] mRequestPool = new FrameRequest[SLOTS_COUNT];
+    //positions of new slots, indexed by their count, callback reads them before returning
+    private final float[][] mPositions = new float[SLOTS_COUNT + 1][];
+
+    private final float[] mSlotLefts = new float[SLOTS_COUNT];
+    private final float[] mSlotRights = new float[SLOTS_COUNT];
+    private final Matrix[] mSlotMatrices = new Matrix[SLOTS_COUNT];
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private RenderMode mRenderMode = RenderMode.VIEWS;
+
+    private int[] mZoomLevels = DEFAULT_ZOOM_LEVELS;
+    private float mZoom = 1;
+    private float mPivotX;
+
+    private final ZoomClock.Listener mZoomFrameListener = new ZoomClock.Listener() {
+        @Override
+        public void onZoomFrame(float fraction) {
+            ZoomableLayout.this.onZoomFrame(fraction);
+        }
+    };
+
+    private ZoomClock mZoomClock = new ZoomClock();
+
+    //zoom animation interpolates between these, so zoom changes don't allocate animators
+    private boolean mIsZooming;
+    private float mZoomFrom = 1;
+    private float mZoomTo = 1;
+
+    private int mBoundWidth;
+    private int mBoundHeight;
+
+    public ZoomableLayout(Context context) {
+        this(context, null);
+    }
+
+    public ZoomableLayout(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public ZoomableLayout(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context);
+    }
+
+    private void init(Context context) {
+        addSlotViews(context);
+
+        mZoomClock.addListener(mZoomFrameListener);
+
+        for (int slot = 0; slot < SLOTS_COUNT; slot++) {
+            mSlotMatrices[slot] = new Matrix();
+            mRequestPool[slot] = new FrameRequest();
+        }
+
+        for (int count = 0; count <= SLOTS_COUNT; count++) {
+            mPositions[count] = new float[count];
+        }
+
+        Arrays.fill(mSlotFrames, NO_FRAME);
+    }
+
+    private void addSlotViews(Context context) {
+        for(int i = 0; i < SLOTS_COUNT; i++) {
+            ImageView view = new ImageView(context);
+            view.setScaleType(ImageView.ScaleType.CENTER_CROP);
+            view.setVisibility(INVISIBLE);
+            addView(view);
+        }
+    }
+
+    public void setRenderMode(RenderMode renderMode) {
+        if (mRenderMode == renderMode) {
+            return;
+        }
+
+        mRenderMode = renderMode;
+
+        if (renderMode == RenderMode.CANVAS) {
+            removeAllViews();
+            setWillNotDraw(false);
+        } else {
+            addSlotViews(getContext());
+            setWillNotDraw(true);
+
+            for (int slot = 0; slot < SLOTS_COUNT; slot++) {
+                getChildAt(slot).setImageBitmap(mShownBitmaps[slot]);
+            }
+        }
+
+        layoutSlots();
+    }
+
+    private Callback mCallback;
+
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * @param zoomLevels zoom levels that get thumbnails of their own density, level 1 is always used
+     * @throws IllegalArgumentException if any of levels is less than 1
+     */
+    public void setZoomLevels(int... zoomLevels) {
+        for (int zoomLevel : zoomLevels) {
+            if (zoomLevel < 1) {
+                throw new IllegalArgumentException("zoom level must be at least 1, was " + zoomLevel);
+            }
+        }
+
+        int[] levels = Arrays.copyOf(zoomLevels, zoomLevels.length + 1);
+        levels[zoomLevels.length] = 1;
+        Arrays.sort(levels);
+
+        mZoomLevels = levels;
+
+        if (mBoundWidth > 0) {
+            updateFrames(false);
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        int width = right - left;
+        int height = bottom - top;
+
+        if (width == mBoundWidth && height == mBoundHeight) {
+            //shown thumbnails are still valid, layout passes must not request them again
+            layoutSlots();
+            return;
+        }
+
+        mBoundWidth = width;
+        mBoundHeight = height;
+
+        mIsZooming = false;
+
+        mZoom = 1;
+        updateFrames(true);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        //requests of frames that weren't loaded yet were cancelled on detach
+        reloadThumbnails();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mZoomClock.stop();
+        cancelRequests();
+
+        //frames aren't rebound while detached, they are bound for final zoom on attach
+        if (mIsZooming) {
+            mZoom = mZoomTo;
+            mIsZooming = false;
+        }
+    }
+
+    /**
+     * Requests thumbnails of frames that are currently on screen, e.g. after video source is changed
+     */
+    void reloadThumbnails() {
+        if (mBoundWidth == 0) {
+            //frames are bound on first layout
+            return;
+        }
+
+        updateFrames(true);
+    }
+
+    /**
+     * Animates zoom to {@code zoom}, keeping {@code pivotX} in place. Pivot is only changed
+     * when zooming from unzoomed state, so zooming out returns frames to where they were.
+     */
+    public void zoomTo(float zoom, float pivotX) {
+        if (mZoom == 1) {
+            mPivotX = pivotX;
+        }
+
+        //interrupted animation is reversed from current zoom
+        mZoomFrom = mZoom;
+        mZoomTo = Math.max(1, zoom);
+        mIsZooming = true;
+
+        mZoomClock.start();
+    }
+
+    private void onZoomFrame(float fraction) {
+        if (!mIsZooming) {
+            return;
+        }
+
+        mZoom = mZoomFrom + (mZoomTo - mZoomFrom) * fraction;
+        mIsZooming = fraction < 1;
+
+        if (mBoundWidth > 0) {
+            updateFrames(false);
+        }
+    }
+
+    /**
+     * Makes zoom animations advance together with other animations of {@code zoomClock}
+     */
+    void setZoomClock(ZoomClock zoomClock) {
+        mZoomClock.removeListener(mZoomFrameListener);
+        mZoomClock = zoomClock;
+        mZoomClock.addListener(mZoomFrameListener);
+    }
+
+    public void resetZoom() {
+        zoomTo(1, mPivotX);
+    }
+
+    /**
+     * Changes zoom right away, e.g. to follow pinch gesture
+     */
+    public void setZoom(float zoom, float pivotX) {
+        mIsZooming = false;
+
+        mZoom = Math.max(1, zoom);
+        mPivotX = pivotX;
+
+        if (mBoundWidth > 0) {
+            updateFrames(false);
+        }
+    }
+
+    /**
+     * @return positions of frames that are shown at {@code zoom} but not when unzoomed
+     */
+    public float[] getFramePositions(float zoom) {
+        int density = densityFor(zoom);
+        float[] positions = new float[MAIN_FRAMES_COUNT * (density - 1)];
+
+        for (int frame = 0, i = 0; frame < MAIN_FRAMES_COUNT * density; frame++) {
+            if (frame % density != 0) {
+                positions[i++] = framePosition(frame, density);
+            }
+        }
+
+        return positions;
+    }
+
+    private int densityFor(float zoom) {
+        int density = 1;
+
+        for (int zoomLevel : mZoomLevels) {
+            if (zoomLevel <= zoom) {
+                density = zoomLevel;
+            }
+        }
+
+        return density;
+    }
+
+    /**
+     * @return position of frame's left side on unzoomed timeline
+     */
+    private float framePosition(int frame, int density) {
+        return mBoundWidth / (float) MAIN_FRAMES_COUNT * frame / density;
+    }
+
+    private float frameWidth(int density) {
+        return mBoundWidth / (float) MAIN_FRAMES_COUNT * mZoom / density;
+    }
+
+    private float frameLeft(int frame, int density) {
+        return mPivotX + (framePosition(frame, density) - mPivotX) * mZoom;
+    }
+
+    /**
+     * Binds slots to frames that are on screen at current zoom, slots of frames that left
+     * the screen are reused for frames that entered it
+     *
+     * @param isRebind true if thumbnails of frames that stay on screen must be requested again
+     */
+    private void updateFrames(boolean isRebind) {
+        mCallback.onZoomChanged(mZoom, mPivotX);
+
+        int density = densityFor(mZoom);
+        float frameWidth = frameWidth(density);
+        float offset = mPivotX * (1 - mZoom);
+
+        int firstFrame = Math.max(0, (int) Math.floor(-offset / frameWidth));
+        int lastFrame = Math.min(MAIN_FRAMES_COUNT * density, (int) Math.ceil((mBoundWidth - offset) / frameWidth));
+
+        System.arraycopy(mSlotFrames, 0, mPreviousSlotFrames, 0, SLOTS_COUNT);
+        System.arraycopy(mSlotDensities, 0, mPreviousSlotDensities, 0, SLOTS_COUNT);
+        System.arraycopy(mShownBitmaps, 0, mPreviousBitmaps, 0, SLOTS_COUNT);
+
+        for (int slot = 0; slot < SLOTS_COUNT; slot++) {
+            if (isRebind || mSlotDensities[slot] != density || mSlotFrames[slot] < firstFrame || mSlotFrames[slot] >= lastFrame) {
+                mSlotFrames[slot] = NO_FRAME;
+            }
+        }
+
+        int newSlotsCount = 0;
+
+        for (int frame = firstFrame; frame < lastFrame; frame++) {
+            if (findSlot(frame, density) != NO_FRAME) {
+                continue;
+            }
+
+            int slot = findSlot(NO_FRAME, density);
+
+            mSlotFrames[slot] = frame;
+            mSlotDensities[slot] = density;
+            mNewSlots[newSlotsCount++] = slot;
+
+            //request of previous frame must not deliver its thumbnail into reused slot
+            releaseSlot(slot);
+
+            //previously shown frame covering the same time stays until thumbnail of new frame is loaded
+            showBitmap(slot, findCoveringBitmap(frame, density));
+        }
+
+        for (int slot = 0; slot < SLOTS_COUNT; slot++) {
+            if (mSlotFrames[slot] == NO_FRAME) {
+                releaseSlot(slot);
+                showBitmap(slot, null);
+            }
+        }
+
+        Arrays.fill(mPreviousBitmaps, null);
+        layoutSlots();
+
+        if (newSlotsCount > 0) {
+            bindSlots(newSlotsCount, density, isRebind && density == 1);
+        }
+    }
+
+    /**
+     * @return slot bound to {@code frame}, or free slot if {@code frame} is {@link #NO_FRAME}
+     */
+    private int findSlot(int frame, int density) {
+        for (int slot = 0; slot < SLOTS_COUNT; slot++) {
+            if (mSlotFrames[slot] == frame && (frame == NO_FRAME || mSlotDensities[slot] == density)) {
+                return slot;
+            }
+        }
+
+        return NO_FRAME;
+    }
+
+    private Bitmap findCoveringBitmap(int frame, int density) {
+        float frameCenter = framePosition(frame, density) + framePosition(1, density) / 2;
+
+        for (int slot = 0; slot < SLOTS_COUNT; slot++) {
+            int previousFrame = mPreviousSlotFrames[slot];
+
+            if (previousFrame == NO_FRAME || mPreviousBitmaps[slot] == null) {
+                continue;
+            }
+
+            int previousDensity = mPreviousSlotDensities[slot];
+            float previousLeft = framePosition(previousFrame, previousDensity);
+
+            if (frameCenter >= previousLeft && frameCenter < previousLeft + framePosition(1, previousDensity)) {
+                return mPreviousBitmaps[slot];
+            }
+        }
+
+        return null;
+    }
+
+    private void layoutSlots() {
+        for (int slot = 0; slot < SLOTS_COUNT; slot++) {
+            int frame = mSlotFrames[slot];
+
+            if (frame == NO_FRAME) {
+                if (mRenderMode == RenderMode.VIEWS) {
+                    getChildAt(slot).setVisibility(INVISIBLE);
+                }
+
+                continue;
+            }
+
+            int density = mSlotDensities[slot];
+            int left = Math.round(frameLeft(frame, density));
+            int right = Math.round(frameLeft(frame, density) + frameWidth(density));
+
+            mSlotLefts[slot] = left;
+            mSlotRights[slot] = right;
+
+            if (mRenderMode == RenderMode.CANVAS) {
+                updateSlotMatrix(slot);
+                continue;
+            }
+
+            //frames are resized rather than scaled, so thumbnails are cropped instead of stretched
+            ImageView view = getChildAt(slot);
+            view.layout(0, 0, right - left, mBoundHeight);
+            view.setTranslationX(left);
+            view.setVisibility(VISIBLE);
+        }
+
+        if (mRenderMode == RenderMode.CANVAS) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Maps shown bitmap into slot bounds the same way {@link ImageView.ScaleType#CENTER_CROP} does
+     */
+    private void updateSlotMatrix(int slot) {
+        Bitmap bitmap = mShownBitmaps[slot];
+
+        if (bitmap == null) {
+            return;
+        }
+
+        float slotWidth = mSlotRights[slot] - mSlotLefts[slot];
+        float scale = Math.max(slotWidth / bitmap.getWidth(), mBoundHeight / (float) bitmap.getHeight());
+
+        Matrix matrix = mSlotMatrices[slot];
+        matrix.setScale(scale, scale);
+        matrix.postTranslate(mSlotLefts[slot] + Math.round((slotWidth - bitmap.getWidth() * scale) / 2), Math.round((mBoundHeight - bitmap.getHeight() * scale) / 2));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mRenderMode != RenderMode.CANVAS) {
+            return;
+        }
+
+        int width = getWidth();
+
+        for (int slot = 0; slot < SLOTS_COUNT; slot++) {
+            Bitmap bitmap = mShownBitmaps[slot];
+
+            //cull frames that are off screen
+            if (mSlotFrames[slot] == NO_FRAME || bitmap == null || mSlotRights[slot] <= 0 || mSlotLefts[slot] >= width) {
+                continue;
+            }
+
+            int saveCount = canvas.save();
+            canvas.clipRect(mSlotLefts[slot], 0, mSlotRights[slot], mBoundHeight);
+            canvas.drawBitmap(bitmap, mSlotMatrices[slot], mBitmapPaint);
+            canvas.restoreToCount(saveCount);
+        }
+    }
+
+    private void bindSlots(int newSlotsCount, int density, boolean isMainStrip) {
+        float[] positions = mPositions[newSlotsCount];
+
+        for (int i = 0; i < newSlotsCount; i++) {
+            positions[i] = framePosition(mSlotFrames[mNewSlots[i]], density);
+        }
+
+        FrameRequest request = idleRequest();
+
+        //slots must be claimed before subscription, cached bitmaps are delivered right away
+        request.claimSlots(mNewSlots, newSlotsCount);
+        request.subscribe(mCallback.getThumbnailsAt(positions, framePosition(1, density), isMainStrip));
+    }
+
+    private FrameRequest idleRequest() {
+        for (FrameRequest request : mRequestPool) {
+            if (request.isIdle()) {
+                return request;
+            }
+        }
+
+        throw new IllegalStateException("every request owns a slot");
+    }
+
+    private void showBitmap(int slot, Bitmap bitmap) {
+        Bitmap previousBitmap = mShownBitmaps[slot];
+
+        if (previousBitmap == bitmap) {
+            return;
+        }
+
+        mShownBitmaps[slot] = bitmap;
+
+        if (mRenderMode == RenderMode.VIEWS) {
+            getChildAt(slot).setImageBitmap(bitmap);
+        } else {
+            updateSlotMatrix(slot);
+            invalidate();
+        }
+
+        if (bitmap != null) {
+            mCallback.onBitmapShown(bitmap);
+        }
+
+        if (previousBitmap != null) {
+            mCallback.onBitmapHidden(previousBitmap);
+        }
+    }
+
+    private void releaseSlot(int slot) {
+        FrameRequest request = mFrameRequests[slot];
+
+        if (request != null) {
+            request.releaseSlot(slot);
+        }
+    }
+
+    private void cancelRequests() {
+        for (int slot = 0; slot < SLOTS_COUNT; slot++) {
+            releaseSlot(slot);
+        }
+    }
+
+    @Override
+    public ImageView getChildAt(int index) {
+        return (ImageView) super.getChildAt(index);
+    }
+
+    /**
+     * Thumbnail request that owns slots it is going to fill. Slot is taken over by newer
+     * request for it, and request is cancelled once it doesn't own any slot,
+     * so late thumbnails never replace newer ones. Idle requests are reused for new slots.
+     */
+    private class FrameRequest implements Observer<Thumbnail> {
+        //slot of each requested thumbnail
+        private final int[] mSlots = new int[SLOTS_COUNT];
+        private int mSlotsCount;
+
+        private int mOwnedSlotsCount;
+        private Subscription mSubscription;
+
+        boolean isIdle() {
+            return mOwnedSlotsCount == 0;
+        }
+
+        void claimSlots(int[] slots, int slotsCount) {
+            System.arraycopy(slots, 0, mSlots, 0, slotsCount);
+            mSlotsCount = slotsCount;
+
+            for (int i = 0; i < slotsCount; i++) {
+                int slot = slots[i];
+                ZoomableLayout.this.releaseSlot(slot);
+
+                mFrameRequests[slot] = this;
+                mOwnedSlotsCount++;
+            }
+        }
+
+        void subscribe(Observable<Thumbnail> thumbnails) {
+            Subscription subscription = thumbnails.subscribe(this);
+
+            //request may have completed or lost its slots while cached thumbnails were delivered
+            if (isIdle()) {
+                subscription.unsubscribe();
+            } else {
+                mSubscription = subscription;
+            }
+        }
+
+        void releaseSlot(int slot) {
+            mFrameRequests[slot] = null;
+
+            if (--mOwnedSlotsCount == 0) {
+                unsubscribe();
+            }
+        }
+
+        private void unsubscribe() {
+            if (mSubscription != null) {
+                mSubscription.unsubscribe();
+                mSubscription = null;
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            for (int i = 0; i < mSlotsCount; i++) {
+                int slot = mSlots[i];
+
+                if (mFrameRequests[slot] == this) {
+                    mFrameRequests[slot] = null;
+                }
+            }
+
+            mOwnedSlotsCount = 0;
+            mSubscription = null;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            onCompleted();
+        }
+
+        @Override
+        public void onNext(Thumbnail thumbnail) {
+            int slot = mSlots[thumbnail.mIndex];
+
+            if (mFrameRequests[slot] == this) {
+                showBitmap(slot, thumbnail.mBitmap);
+            }
+        }
+    }
+
+    /**
+     * How frames are rendered, both modes zoom the same way
+     */
+    public enum RenderMode {
+        /**
+         * Every frame is a child {@link ImageView}
+         */
+        VIEWS,
+        /**
+         * All frames are drawn by single {@link #onDraw(Canvas)}, without child views
+         * to measure, lay out and record
+         */
+        CANVAS
+    }
+
+    public interface Callback {
+        /**
+         * @param pixelPositions positions of frames, array is reused once this method returns
+         * @param pixelSpan width of unzoomed timeline covered by each frame
+         * @return observable emitting thumbnails in order they are loaded,
+         * {@link Thumbnail#mIndex} points into {@code pixelPositions}
+         */
+        Observable<Thumbnail> getThumbnailsAt(float[] pixelPositions, float pixelSpan, boolean isMainStrip);
+
+        void onBitmapShown(Bitmap bitmap);
+
+        void onBitmapHidden(Bitmap bitmap);
+
+        /**
+         * Called whenever frames are moved, frame at unzoomed position {@code x} is shown
+         * at {@code pivotX + (x - pivotX) * zoom}
+         */
+        void onZoomChanged(float zoom, float pivotX);
+    }
+}
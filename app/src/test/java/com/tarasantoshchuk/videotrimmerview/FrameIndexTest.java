@@ -0,0 +1,125 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class FrameIndexTest {
+    private static final File VIDEO = new File("src/main/assets/video.mp4");
+
+    @Test
+    public void emptyIndexHasNoFrames() {
+        assertEquals(FrameIndex.NO_FRAME, FrameIndex.EMPTY.nearestFrameBoundUs(1000));
+        assertEquals(FrameIndex.NO_FRAME, FrameIndex.EMPTY.nearestSyncFrameUs(1000));
+    }
+
+    @Test
+    public void nearestFrameIsFound() {
+        FrameIndex index = new FrameIndex(new long[]{0, 40, 80, 120}, new long[]{0, 80});
+
+        assertEquals(40, index.nearestFrameBoundUs(40));
+        assertEquals(40, index.nearestFrameBoundUs(55));
+        assertEquals(80, index.nearestFrameBoundUs(65));
+        assertEquals(120, index.nearestFrameBoundUs(500));
+        assertEquals(0, index.nearestFrameBoundUs(-10));
+
+        assertEquals(0, index.nearestSyncFrameUs(35));
+        assertEquals(80, index.nearestSyncFrameUs(45));
+        assertEquals(80, index.nearestSyncFrameUs(500));
+    }
+
+    @Test
+    public void maxLengthRangeIsKeptWithinLimitsWhenStartMovesToEarlierSyncFrame() {
+        FrameIndex index = new FrameIndex(frameBoundsUs(0, 30_000_000, 100_000), new long[]{0, 5_000_000, 10_000_000});
+        long[] rangeUs = {5_300_000, 20_300_000};
+
+        assertTrue(index.snapRange(rangeUs, true, 1_000_000, 15_000_000));
+
+        assertEquals(5_000_000, rangeUs[0]);
+        assertEquals(20_000_000, rangeUs[1]);
+    }
+
+    @Test
+    public void maxLengthRangeIsKeptWithinLimitsWhenEndMovesToLaterFrame() {
+        //variable frame rate, frame around the end is longer than the one around the start
+        FrameIndex index = new FrameIndex(new long[]{0, 5_000_000, 5_100_000, 19_950_000, 20_060_000, 30_000_000}, new long[]{0});
+        long[] rangeUs = {5_040_000, 20_040_000};
+
+        assertTrue(index.snapRange(rangeUs, false, 1_000_000, 15_000_000));
+
+        assertEquals(5_000_000, rangeUs[0]);
+        assertEquals(19_950_000, rangeUs[1]);
+    }
+
+    @Test
+    public void minLengthRangeAtVideoEndMovesStart() {
+        FrameIndex index = new FrameIndex(frameBoundsUs(0, 10_000_000, 100_000), new long[]{0, 5_000_000, 9_000_000});
+        long[] rangeUs = {9_000_000, 10_000_000};
+
+        assertTrue(index.snapRange(rangeUs, true, 1_000_000, 15_000_000));
+        assertEquals(9_000_000, rangeUs[0]);
+
+        rangeUs = new long[]{8_900_000, 9_900_000};
+
+        assertTrue(index.snapRange(rangeUs, true, 1_000_000, 15_000_000));
+        assertEquals(9_000_000, rangeUs[0]);
+        assertEquals(10_000_000, rangeUs[1]);
+    }
+
+    @Test
+    public void rangeThatDoesntFitLimitsIsLeftIntact() {
+        FrameIndex index = new FrameIndex(frameBoundsUs(0, 500_000, 100_000), new long[]{0});
+        long[] rangeUs = {0, 500_000};
+
+        assertFalse(index.snapRange(rangeUs, true, 1_000_000, 15_000_000));
+        assertEquals(500_000, rangeUs[1]);
+    }
+
+    @Test
+    public void reorderedFramesAreSorted() throws IOException {
+        FrameIndex index = FrameIndex.fromTrack(videoTrack());
+
+        assertEquals(250, index.frameCount());
+        assertEquals(10, index.syncFrameCount());
+
+        //25 fps video, every frame time is a multiple of 40ms up to 10s
+        assertEquals(0, index.nearestFrameBoundUs(0));
+        assertEquals(2_440_000, index.nearestFrameBoundUs(2_450_000));
+        assertEquals(10_000_000, index.nearestFrameBoundUs(11_000_000));
+    }
+
+    @Test
+    public void syncFramesAreFromSampleTable() throws IOException {
+        Mp4Track video = videoTrack();
+        FrameIndex index = FrameIndex.fromTrack(video);
+
+        for (int sample : video.mSyncSamples) {
+            long timeUs = video.toUs(video.presentationTime(sample));
+            assertEquals(timeUs, index.nearestSyncFrameUs(timeUs + 1));
+        }
+    }
+
+    private static long[] frameBoundsUs(long startUs, long endUs, long frameDurationUs) {
+        long[] boundsUs = new long[(int) ((endUs - startUs) / frameDurationUs) + 1];
+
+        for (int i = 0; i < boundsUs.length; i++) {
+            boundsUs[i] = startUs + i * frameDurationUs;
+        }
+
+        return boundsUs;
+    }
+
+    private static Mp4Track videoTrack() throws IOException {
+        FileInputStream input = new FileInputStream(VIDEO);
+
+        try {
+            return Mp4Parser.parse(input.getChannel(), 0, VIDEO.length()).videoTrack();
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.*;
+
+public class Mp4ParserTest {
+    private static final File VIDEO = new File("src/main/assets/video.mp4");
+
+    //moov box of bundled video
+    private static final int MOOV_POSITION = 24;
+    private static final int MOOV_SIZE = 3379;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void probeReadsHeadersOnly() throws IOException {
+        Mp4Movie movie = probe(VIDEO, 0);
+        Mp4Track video = movie.videoTrack();
+
+        assertEquals(1, movie.mTracks.size());
+        assertEquals(10_000_000, movie.durationUs());
+        assertEquals(1080, video.mCodedWidth);
+        assertEquals(1092, video.mCodedHeight);
+        assertEquals(0, video.rotationDegrees());
+        assertNull(video.mSizes);
+    }
+
+    @Test
+    public void metadataIsReadFromMovie() throws IOException {
+        VideoMetadata metadata = VideoMetadata.fromMovie(probe(VIDEO, 0));
+
+        assertEquals(1080, metadata.mWidth);
+        assertEquals(1092, metadata.mHeight);
+        assertEquals(10_000, metadata.mDurationMs);
+        assertFalse(metadata.mHasAudio);
+    }
+
+    @Test
+    public void moovAtEndIsReachedBySeeking() throws IOException {
+        long mediaSize = 1L << 30;
+        File file = mFolder.newFile("moov-at-end.mp4");
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+
+        try {
+            //media data is left sparse, parser must skip it without reading
+            output.writeInt(1);
+            output.writeInt(Mp4Parser.TYPE_MDAT);
+            output.writeLong(mediaSize);
+            output.seek(mediaSize);
+            output.write(readMovieBox());
+        } finally {
+            output.close();
+        }
+
+        assertEquals(10_000_000, probe(file, 0).durationUs());
+    }
+
+    @Test
+    public void sourceOffsetIsRespected() throws IOException {
+        File file = mFolder.newFile("embedded.mp4");
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+
+        try {
+            //zero size box would span until the end of file if it was parsed
+            output.write(new byte[1000]);
+            output.write(readMovieBox());
+        } finally {
+            output.close();
+        }
+
+        assertEquals(10_000_000, probe(file, 1000).durationUs());
+    }
+
+    @Test
+    public void rotationIsReadFromMatrix() {
+        Mp4Track track = new Mp4Track();
+
+        track.mMatrix = new int[]{0, 0x10000, 0, -0x10000, 0, 0, 0, 0, 0x40000000};
+        assertEquals(90, track.rotationDegrees());
+
+        track.mMatrix = new int[]{-0x10000, 0, 0, 0, -0x10000, 0, 0, 0, 0x40000000};
+        assertEquals(180, track.rotationDegrees());
+
+        track.mMatrix = new int[]{0, -0x10000, 0, 0x10000, 0, 0, 0, 0, 0x40000000};
+        assertEquals(270, track.rotationDegrees());
+    }
+
+    @Test
+    public void truncatedBoxIsReportedAsIoException() throws IOException {
+        ByteBuffer moov = ByteBuffer.wrap(readMovieBox());
+        //tkhd that is too short for its fields
+        moov.putInt(boxPosition(moov, Mp4Parser.TYPE_TKHD), Mp4Parser.HEADER_SIZE + 8);
+
+        assertMalformed(moov);
+    }
+
+    @Test
+    public void sampleCountIsLimitedByFileSize() throws IOException {
+        ByteBuffer moov = ByteBuffer.wrap(readMovieBox());
+        int stsz = boxPosition(moov, Mp4Parser.TYPE_STSZ);
+        //constant sample size makes count unbacked by table entries
+        moov.putInt(stsz + 12, 1);
+        moov.putInt(stsz + 16, Integer.MAX_VALUE);
+
+        assertMalformed(moov);
+    }
+
+    @Test
+    public void syncSampleOutOfRangeIsRejected() throws IOException {
+        ByteBuffer moov = ByteBuffer.wrap(readMovieBox());
+        moov.putInt(boxPosition(moov, Mp4Parser.TYPE_STSS) + 16, 100_000);
+
+        assertMalformed(moov);
+    }
+
+    @Test
+    public void entryCountLargerThanBoxIsRejected() throws IOException {
+        ByteBuffer moov = ByteBuffer.wrap(readMovieBox());
+        moov.putInt(boxPosition(moov, Mp4Parser.TYPE_STTS) + 12, Integer.MAX_VALUE);
+
+        assertMalformed(moov);
+    }
+
+    private void assertMalformed(ByteBuffer moov) throws IOException {
+        File file = mFolder.newFile();
+        FileOutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(moov.array());
+        } finally {
+            output.close();
+        }
+
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            Mp4Parser.parse(input.getChannel(), 0, file.length());
+            fail("malformed moov was parsed");
+        } catch (IOException expected) {
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @return position of box header of the first box of {@code type}
+     */
+    private static int boxPosition(ByteBuffer moov, int type) {
+        for (int i = 4; i + 4 <= moov.limit(); i++) {
+            if (moov.getInt(i) == type) {
+                return i - 4;
+            }
+        }
+
+        throw new AssertionError("no box of type " + type);
+    }
+
+    private static Mp4Movie probe(File file, long offset) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            return Mp4Parser.probe(input.getChannel(), offset, VideoSource.UNKNOWN_LENGTH);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static byte[] readMovieBox() throws IOException {
+        FileInputStream input = new FileInputStream(VIDEO);
+
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer moov = ByteBuffer.allocate(MOOV_SIZE);
+
+            while (moov.hasRemaining()) {
+                if (channel.read(moov, MOOV_POSITION + moov.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+
+            return moov.array();
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class Mp4TrimExporterTest {
+    private static final File VIDEO = new File("src/main/assets/video.mp4");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private FileInputStream mInput;
+    private FileChannel mChannel;
+    private Mp4Movie mSource;
+
+    @Before
+    public void setUp() throws IOException {
+        mInput = new FileInputStream(VIDEO);
+        mChannel = mInput.getChannel();
+        mSource = Mp4Parser.parse(mChannel, 0, VideoSource.UNKNOWN_LENGTH);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mInput.close();
+    }
+
+    @Test
+    public void sourceIsParsed() {
+        Mp4Track video = mSource.videoTrack();
+
+        assertNotNull(video);
+        assertEquals(10_000_000, mSource.durationUs());
+        assertEquals(250, video.sampleCount());
+        assertTrue(video.isSyncSample(0));
+    }
+
+    @Test
+    public void exportCopiesSamplesFromSyncSample() throws IOException {
+        Mp4Track source = mSource.videoTrack();
+        int firstSync = lastSyncSampleBefore(source, 2_500_000);
+
+        File output = export(2_500_000, 6_000_000);
+        Mp4Track trimmed = parse(output).videoTrack();
+
+        assertTrue(firstSync > 0);
+        assertTrue(trimmed.isSyncSample(0));
+        assertSamplesEqual(source, firstSync, output, trimmed);
+    }
+
+    @Test
+    public void exportKeepsRequestedDuration() throws IOException {
+        Mp4Track source = mSource.videoTrack();
+        long actualStartUs = source.toUs(source.presentationTime(lastSyncSampleBefore(source, 2_500_000)));
+
+        Mp4Movie trimmed = parse(export(2_500_000, 6_000_000));
+
+        assertEquals(6_000_000 - actualStartUs, trimmed.durationUs());
+        assertEquals(0, trimmed.videoTrack().presentationTime(0));
+    }
+
+    @Test
+    public void progressGrowsToOne() {
+        List<Float> progress = Mp4TrimExporter.export(mChannel, 0, VideoSource.UNKNOWN_LENGTH, newFile(), 0, 10_000_000)
+                .toList()
+                .toBlocking()
+                .single();
+
+        assertFalse(progress.isEmpty());
+
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i) >= progress.get(i - 1));
+        }
+
+        assertEquals(1f, progress.get(progress.size() - 1), 0);
+    }
+
+    @Test
+    public void unsubscribedExportIsDeleted() {
+        File output = newFile();
+
+        Mp4TrimExporter.export(mChannel, 0, VideoSource.UNKNOWN_LENGTH, output, 0, 10_000_000)
+                .take(1)
+                .toBlocking()
+                .single();
+
+        assertFalse(output.exists());
+    }
+
+    @Test
+    public void emptyRangeFailsWithoutOutput() {
+        File output = newFile();
+
+        Throwable error = Mp4TrimExporter.export(mChannel, 0, VideoSource.UNKNOWN_LENGTH, output, 6_000_000, 2_500_000)
+                .materialize()
+                .toBlocking()
+                .last()
+                .getThrowable();
+
+        assertTrue(error instanceof IOException);
+        assertFalse(output.exists());
+    }
+
+    private File newFile() {
+        return new File(mFolder.getRoot(), "trimmed.mp4");
+    }
+
+    private File export(long startUs, long endUs) {
+        File output = newFile();
+
+        Mp4TrimExporter.export(mChannel, 0, VideoSource.UNKNOWN_LENGTH, output, startUs, endUs)
+                .toBlocking()
+                .last();
+
+        return output;
+    }
+
+    private static Mp4Movie parse(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            return Mp4Parser.parse(input.getChannel(), 0, file.length());
+        } finally {
+            input.close();
+        }
+    }
+
+    private static int lastSyncSampleBefore(Mp4Track track, long timeUs) {
+        int result = -1;
+
+        for (int sample = 0; sample < track.sampleCount(); sample++) {
+            if (track.isSyncSample(sample) && track.toUs(track.presentationTime(sample)) <= timeUs) {
+                result = sample;
+            }
+        }
+
+        return result;
+    }
+
+    private void assertSamplesEqual(Mp4Track source, int sourceFirst, File output, Mp4Track trimmed) throws IOException {
+        FileInputStream input = new FileInputStream(output);
+
+        try {
+            FileChannel trimmedChannel = input.getChannel();
+
+            for (int sample = 0; sample < trimmed.sampleCount(); sample++) {
+                int sourceSample = sourceFirst + sample;
+
+                assertEquals(source.mSizes[sourceSample], trimmed.mSizes[sample]);
+                assertEquals(source.mDurations[sourceSample], trimmed.mDurations[sample]);
+                assertEquals(source.isSyncSample(sourceSample), trimmed.isSyncSample(sample));
+                assertEquals(read(mChannel, source.mOffsets[sourceSample], source.mSizes[sourceSample]),
+                        read(trimmedChannel, trimmed.mOffsets[sample], trimmed.mSizes[sample]));
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,82 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PeakPyramidTest {
+    private static final int SAMPLE_RATE = 44_100;
+
+    @Test
+    public void levelsHalveInSize() {
+        PeakPyramid peaks = new PeakPyramid.Builder(PeakPyramid.BASE_SIZE).build(SAMPLE_RATE);
+
+        for (int level = 0; level < peaks.levelCount(); level++) {
+            assertEquals(PeakPyramid.BASE_SIZE >> level, peaks.size(level));
+        }
+
+        assertEquals(1, peaks.size(peaks.levelCount() - 1));
+    }
+
+    @Test
+    public void coarserLevelsKeepExtremes() {
+        PeakPyramid.Builder builder = new PeakPyramid.Builder(PeakPyramid.BASE_SIZE * 4);
+
+        for (int frame = 0; frame < PeakPyramid.BASE_SIZE * 4; frame++) {
+            short sample = frame == 12345 ? Short.MAX_VALUE : (frame == 54321 ? Short.MIN_VALUE : 0);
+            builder.addFrame(sample, sample);
+        }
+
+        PeakPyramid peaks = builder.build(SAMPLE_RATE);
+
+        assertEquals(127, peaks.max(0, 12345 / 4));
+        assertEquals(-128, peaks.min(0, 54321 / 4));
+
+        int topLevel = peaks.levelCount() - 1;
+        assertEquals(127, peaks.max(topLevel, 0));
+        assertEquals(-128, peaks.min(topLevel, 0));
+    }
+
+    @Test
+    public void shorterTrackIsStretchedOverBuckets() {
+        PeakPyramid.Builder builder = new PeakPyramid.Builder(PeakPyramid.BASE_SIZE * 2);
+
+        for (int frame = 0; frame < PeakPyramid.BASE_SIZE; frame++) {
+            short sample = frame == PeakPyramid.BASE_SIZE - 1 ? Short.MAX_VALUE : 0;
+            builder.addFrame(sample, sample);
+        }
+
+        PeakPyramid peaks = builder.build(SAMPLE_RATE);
+
+        assertEquals(127, peaks.max(0, PeakPyramid.BASE_SIZE - 1));
+        assertEquals(0, peaks.max(0, PeakPyramid.BASE_SIZE / 2));
+        assertEquals(PeakPyramid.BASE_SIZE * 1_000_000L / SAMPLE_RATE, peaks.durationUs());
+    }
+
+    @Test
+    public void unknownLengthIsDerivedFromDecodedFrames() {
+        PeakPyramid.Builder builder = new PeakPyramid.Builder(0);
+
+        for (int frame = 0; frame < PeakPyramid.BASE_SIZE * 4; frame++) {
+            short sample = frame == 12345 ? Short.MAX_VALUE : (frame == 54321 ? Short.MIN_VALUE : 0);
+            builder.addFrame(sample, sample);
+        }
+
+        PeakPyramid peaks = builder.build(SAMPLE_RATE);
+
+        assertEquals(127, peaks.max(0, 12345 / 4));
+        assertEquals(-128, peaks.min(0, 54321 / 4));
+        assertEquals(0, peaks.max(0, PeakPyramid.BASE_SIZE - 1));
+        assertEquals(PeakPyramid.BASE_SIZE * 4 * 1_000_000L / SAMPLE_RATE, peaks.durationUs());
+    }
+
+    @Test
+    public void levelMatchesColumns() {
+        PeakPyramid peaks = new PeakPyramid.Builder(PeakPyramid.BASE_SIZE).build(SAMPLE_RATE);
+
+        assertEquals(0, peaks.levelFor(PeakPyramid.BASE_SIZE * 2));
+        assertEquals(0, peaks.levelFor(PeakPyramid.BASE_SIZE));
+        assertEquals(1, peaks.levelFor(PeakPyramid.BASE_SIZE / 2));
+        assertEquals(3, peaks.levelFor(1080 * 1.5f));
+    }
+}
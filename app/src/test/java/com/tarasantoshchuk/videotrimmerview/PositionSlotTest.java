@@ -0,0 +1,81 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PositionSlotTest {
+    private static final float DELTA_MS = 0.001f;
+
+    @Test
+    public void positionIsHiddenUntilReported() {
+        PositionSlot slot = new PositionSlot();
+
+        assertTrue(Float.isNaN(slot.positionAt(System.nanoTime())));
+    }
+
+    @Test
+    public void positionIsExtrapolatedWithRate() {
+        PositionSlot slot = new PositionSlot();
+        slot.writeRate(2);
+
+        long beforeReportNs = System.nanoTime();
+        slot.writePosition(1000);
+        long afterReportNs = System.nanoTime();
+
+        float positionMs = slot.positionAt(afterReportNs + 100_000_000);
+
+        assertTrue(positionMs >= 1000 + 200 - DELTA_MS);
+        assertTrue(positionMs <= 1000 + 2 * (afterReportNs - beforeReportNs + 100_000_000) / 1_000_000f + DELTA_MS);
+    }
+
+    @Test
+    public void extrapolationIsLimited() {
+        PositionSlot slot = new PositionSlot();
+        slot.writePosition(0);
+
+        assertTrue(slot.positionAt(System.nanoTime() + 60_000_000_000L) <= 1000 + DELTA_MS);
+    }
+
+    @Test
+    public void pausedPositionIsHidden() {
+        PositionSlot slot = new PositionSlot();
+        slot.writePosition(1000);
+        slot.writePaused();
+
+        assertTrue(Float.isNaN(slot.positionAt(System.nanoTime())));
+    }
+
+    @Test
+    public void concurrentWritesAreReadConsistently() throws InterruptedException {
+        final PositionSlot slot = new PositionSlot();
+        slot.writeRate(0);
+
+        Thread[] writers = new Thread[4];
+
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100_000; j++) {
+                        slot.writePosition(j);
+                    }
+                }
+            });
+            writers[i].start();
+        }
+
+        for (int i = 0; i < 100_000; i++) {
+            float positionMs = slot.positionAt(System.nanoTime());
+
+            //every read returns one of reported positions
+            assertTrue(Float.isNaN(positionMs) || positionMs == (int) positionMs);
+        }
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(99_999, slot.positionAt(System.nanoTime()), DELTA_MS);
+    }
+}
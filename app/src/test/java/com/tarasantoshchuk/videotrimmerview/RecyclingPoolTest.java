@@ -0,0 +1,84 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RecyclingPoolTest {
+    private static final int WIDTH = 216;
+    private static final int HEIGHT = 121;
+
+    private FramePool mPool;
+
+    @Before
+    public void setUp() throws Exception {
+        mPool = new FramePool();
+    }
+
+    @Test
+    public void shownFrame_isNotReusedAfterEviction() throws Exception {
+        Frame frame = mPool.obtain(WIDTH, HEIGHT);
+
+        mPool.onShown(frame);
+        mPool.onEvicted(frame);
+
+        assertNotSame(frame, mPool.obtain(WIDTH, HEIGHT));
+
+        mPool.onHidden(frame);
+
+        assertSame(frame, mPool.obtain(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void frameShownWhileEvicted_isWithdrawnFromPool() throws Exception {
+        Frame frame = mPool.obtain(WIDTH, HEIGHT);
+
+        mPool.onEvicted(frame);
+        mPool.onShown(frame);
+
+        assertNotSame(frame, mPool.obtain(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void framesOfDifferentSize_areNotMixed() throws Exception {
+        Frame frame = mPool.obtain(WIDTH, HEIGHT);
+        mPool.onEvicted(frame);
+
+        Frame otherSizeFrame = mPool.obtain(WIDTH / 2, HEIGHT / 2);
+
+        assertNotSame(frame, otherSizeFrame);
+        assertEquals(2, mPool.getAllocationCount());
+    }
+
+    private static class Frame {
+        final int mWidth;
+        final int mHeight;
+
+        Frame(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+        }
+    }
+
+    private static class FramePool extends RecyclingPool<Frame> {
+        FramePool() {
+            super(8);
+        }
+
+        @Override
+        protected Frame allocate(int width, int height) {
+            return new Frame(width, height);
+        }
+
+        @Override
+        protected int widthOf(Frame frame) {
+            return frame.mWidth;
+        }
+
+        @Override
+        protected int heightOf(Frame frame) {
+            return frame.mHeight;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.tarasantoshchuk.videotrimmerview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SceneIndexTest {
+    private static final SceneIndex INDEX = SceneIndex.EMPTY
+            .withCut(5_000_000)
+            .withCut(1_000_000)
+            .withCut(3_000_000)
+            .withCut(3_000_000);
+
+    @Test
+    public void cutsAreUnique() {
+        assertEquals(3, INDEX.size());
+    }
+
+    @Test
+    public void nearestCutIsWithinDistance() {
+        assertEquals(3_000_000, INDEX.nearestCutUs(3_200_000, 500_000));
+        assertEquals(3_000_000, INDEX.nearestCutUs(2_900_000, 500_000));
+        assertEquals(1_000_000, INDEX.nearestCutUs(1_000_000, 0));
+        assertEquals(SceneIndex.NO_CUT, INDEX.nearestCutUs(4_000_000, 500_000));
+        assertEquals(SceneIndex.NO_CUT, SceneIndex.EMPTY.nearestCutUs(4_000_000, 500_000));
+    }
+
+    @Test
+    public void spanWithoutCutKeepsItsStart() {
+        assertEquals(1_500_000, INDEX.representativeTimeUs(1_500_000, 1_000_000));
+        assertEquals(1_000_000, INDEX.representativeTimeUs(1_000_000, 1_000_000));
+    }
+
+    @Test
+    public void spanWithCutShowsNewScene() {
+        assertEquals(3_500_000, INDEX.representativeTimeUs(2_500_000, 1_500_000));
+        assertEquals(6_000_000, INDEX.representativeTimeUs(4_500_000, 2_500_000));
+    }
+
+    @Test
+    public void sceneEndsAtNextCut() {
+        assertEquals(2_000_000, INDEX.representativeTimeUs(500_000, 4_000_000));
+    }
+}